@@ -21,6 +21,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.apache.ibatis.mapping.CoalesceMode;
 import org.apache.ibatis.mapping.ResultSetType;
 import org.apache.ibatis.mapping.StatementType;
 
@@ -63,4 +64,19 @@ public @interface Options {
   String keyColumn() default "";
 
   String resultSets() default "";
+
+  /**
+   * Returns whether the results are ordered by the id of the outermost result object.
+   * Nested result objects are then streamed as soon as they are complete.
+   *
+   * @return {@code true} if the results are ordered
+   */
+  boolean resultOrdered() default false;
+
+  /**
+   * Returns the coalescing mode of concurrent identical select queries.
+   *
+   * @return the coalescing mode
+   */
+  CoalesceMode coalesce() default CoalesceMode.NONE;
 }
@@ -23,10 +23,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import org.apache.ibatis.annotations.Flush;
 import org.apache.ibatis.annotations.MapKey;
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.Flow;
+import org.apache.ibatis.cursor.defaults.CursorPublisher;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.StatementType;
@@ -37,6 +41,8 @@ import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
 
 /**
  * @author Clinton Begin
@@ -71,6 +77,14 @@ public class MapperMethod {
    * @return 数据库操作结果
    */
   public Object execute(SqlSession sqlSession, Object[] args) {
+    if (method.returnsFuture()) {
+      // 异步方法
+      return executeForFuture(sqlSession.getConfiguration(), args);
+    }
+    return executeCommand(sqlSession, args);
+  }
+
+  private Object executeCommand(SqlSession sqlSession, Object[] args) {
     Object result;
     switch (command.getType()) { // 根据SQL语句类型，执行不同操作
       //如果执行insert命令
@@ -110,6 +124,8 @@ public class MapperMethod {
           // 使用结果处理器执行查询
           executeWithResultHandler(sqlSession, args);
           result = null;
+        } else if (method.returnsPublisher()) { // 按需读取的发布者
+          result = executeForPublisher(sqlSession, args);
         } else if (method.returnsMany()) { // 多条结果查询
           result = executeForMany(sqlSession, args);
         } else if (method.returnsMap()) { // Map结果查询
@@ -139,6 +155,48 @@ public class MapperMethod {
     return result;
   }
 
+  /**
+   * 返回按订阅者的请求从游标中读取数据的发布者，每次订阅都在独立的会话中执行查询
+   * @param sqlSession sqlSession接口的实例
+   * @param args 执行接口方法时传入的参数
+   * @return 发布者
+   */
+  private <T> Flow.Publisher<T> executeForPublisher(SqlSession sqlSession, Object[] args) {
+    final Object param = method.convertArgsToSqlCommandParam(args);
+    final RowBounds rowBounds = method.hasRowBounds() ? method.extractRowBounds(args) : RowBounds.DEFAULT;
+    return new CursorPublisher<>(sqlSession.getConfiguration(), session -> session.selectCursor(command.getName(), param, rowBounds));
+  }
+
+  /**
+   * 在异步线程池中使用独立的会话执行方法。查询使用自动提交的会话，增删改在执行成功后提交
+   * @param configuration 配置信息
+   * @param args 执行接口方法时传入的参数
+   * @return 方法执行结束后完成的Future
+   */
+  private CompletableFuture<Object> executeForFuture(Configuration configuration, Object[] args) {
+    final SqlSessionFactory sqlSessionFactory = new DefaultSqlSessionFactory(configuration);
+    final boolean autoCommit = command.getType() == SqlCommandType.SELECT || command.getType() == SqlCommandType.FLUSH;
+    final CompletableFuture<Object> future = new CompletableFuture<>();
+    final Runnable task = () -> {
+      try (SqlSession sqlSession = sqlSessionFactory.openSession(autoCommit)) {
+        Object result = executeCommand(sqlSession, args);
+        if (!autoCommit) {
+          sqlSession.commit();
+        }
+        future.complete(result);
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      }
+    };
+    try {
+      configuration.getAsyncExecutor().execute(task);
+    } catch (RuntimeException e) {
+      // 线程池拒绝任务
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
   private Object rowCountResult(int rowCount) {
     final Object result;
     if (method.returnsVoid()) {
@@ -340,6 +398,10 @@ public class MapperMethod {
     private final boolean returnsCursor;
     // 返回类型是否是optional类型
     private final boolean returnsOptional;
+    // 返回类型是否是CompletableFuture类型，此时其余字段描述的是Future的结果类型
+    private final boolean returnsFuture;
+    // 返回类型是否是Flow.Publisher类型
+    private final boolean returnsPublisher;
     // 返回类型
     private final Class<?> returnType;
     // 如果返回为map,这里记录所有的map的key
@@ -353,18 +415,27 @@ public class MapperMethod {
 
     public MethodSignature(Configuration configuration, Class<?> mapperInterface, Method method) {
       Type resolvedReturnType = TypeParameterResolver.resolveReturnType(method, mapperInterface);
+      this.returnsFuture = isFutureType(resolvedReturnType);
+      if (returnsFuture) {
+        resolvedReturnType = ((ParameterizedType) resolvedReturnType).getActualTypeArguments()[0];
+      }
       if (resolvedReturnType instanceof Class<?>) {
         this.returnType = (Class<?>) resolvedReturnType;
       } else if (resolvedReturnType instanceof ParameterizedType) {
         this.returnType = (Class<?>) ((ParameterizedType) resolvedReturnType).getRawType();
       } else {
-        this.returnType = method.getReturnType();
+        this.returnType = returnsFuture ? Object.class : method.getReturnType();
       }
-      this.returnsVoid = void.class.equals(this.returnType);
+      this.returnsVoid = void.class.equals(this.returnType) || (returnsFuture && Void.class.equals(this.returnType));
       this.returnsMany = configuration.getObjectFactory().isCollection(this.returnType) || this.returnType.isArray();
       this.returnsCursor = Cursor.class.equals(this.returnType);
       this.returnsOptional = Optional.class.equals(this.returnType);
-      this.mapKey = getMapKey(method);
+      this.returnsPublisher = Flow.Publisher.class.equals(this.returnType);
+      if (returnsFuture && returnsCursor) {
+        throw new BindingException("Mapper method '" + method.getName() + "' cannot return a Cursor asynchronously, "
+            + "because the Cursor would be closed together with its session.");
+      }
+      this.mapKey = getMapKey(method, this.returnType);
       this.returnsMap = this.mapKey != null;
       this.rowBoundsIndex = getUniqueParamIndex(method, RowBounds.class);
       this.resultHandlerIndex = getUniqueParamIndex(method, ResultHandler.class);
@@ -424,6 +495,31 @@ public class MapperMethod {
       return returnsOptional;
     }
 
+    /**
+     * return whether return type is {@code java.util.concurrent.CompletableFuture}
+     * or {@code java.util.concurrent.CompletionStage}.
+     * @return return {@code true}, if the method is executed asynchronously
+     */
+    public boolean returnsFuture() {
+      return returnsFuture;
+    }
+
+    /**
+     * return whether return type is {@link Flow.Publisher}.
+     * @return return {@code true}, if the results are published on demand
+     */
+    public boolean returnsPublisher() {
+      return returnsPublisher;
+    }
+
+    private static boolean isFutureType(Type type) {
+      if (type instanceof ParameterizedType) {
+        Type rawType = ((ParameterizedType) type).getRawType();
+        return CompletableFuture.class.equals(rawType) || CompletionStage.class.equals(rawType);
+      }
+      return false;
+    }
+
     // 返回指定参数的index
     private Integer getUniqueParamIndex(Method method, Class<?> paramType) {
       Integer index = null;
@@ -440,9 +536,9 @@ public class MapperMethod {
       return index;
     }
 
-    private String getMapKey(Method method) {
+    private String getMapKey(Method method, Class<?> returnType) {
       String mapKey = null;
-      if (Map.class.isAssignableFrom(method.getReturnType())) {
+      if (Map.class.isAssignableFrom(returnType)) {
         final MapKey mapKeyAnnotation = method.getAnnotation(MapKey.class);
         if (mapKeyAnnotation != null) {
           mapKey = mapKeyAnnotation.value();
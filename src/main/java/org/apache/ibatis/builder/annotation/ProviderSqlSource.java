@@ -135,6 +135,17 @@ public class ProviderSqlSource implements SqlSource {
     return sqlSource.getBoundSql(parameterObject);
   }
 
+  /**
+   * 获取foreach分块执行时某一块的BoundSql
+   * @param parameterObject 参数对象
+   * @param chunk 块号，从0开始
+   * @return BoundSql对象
+   */
+  @Override
+  public BoundSql getBoundSql(Object parameterObject, int chunk) {
+    return createSqlSource(parameterObject).getBoundSql(parameterObject, chunk);
+  }
+
   /**
    * 获取一个BoundSql对象
    * @param parameterObject 参数对象
@@ -17,13 +17,22 @@ package org.apache.ibatis.builder.xml;
 
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
 import javax.sql.DataSource;
 
 import org.apache.ibatis.builder.BaseBuilder;
 import org.apache.ibatis.builder.BuilderException;
 import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.executor.BatchFlushListener;
 import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.executor.bulk.BulkChannel;
 import org.apache.ibatis.executor.loader.ProxyFactory;
 import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.io.VFS;
@@ -37,9 +46,12 @@ import org.apache.ibatis.reflection.DefaultReflectorFactory;
 import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.AccessorStrategy;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
+import org.apache.ibatis.scripting.xmltags.ExpressionEngine;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.AutoMappingUnknownColumnBehavior;
+import org.apache.ibatis.session.BatchResultRetention;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.LocalCacheScope;
@@ -288,14 +300,28 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setAutoMappingUnknownColumnBehavior(AutoMappingUnknownColumnBehavior.valueOf(props.getProperty("autoMappingUnknownColumnBehavior", "NONE")));
     configuration.setCacheEnabled(booleanValueOf(props.getProperty("cacheEnabled"), true));
     configuration.setProxyFactory((ProxyFactory) createInstance(props.getProperty("proxyFactory")));
+    configuration.setExpressionEngine((ExpressionEngine) createInstance(props.getProperty("expressionEngine")));
+    configuration.setBulkChannel((BulkChannel) createInstance(props.getProperty("bulkChannel")));
     configuration.setLazyLoadingEnabled(booleanValueOf(props.getProperty("lazyLoadingEnabled"), false));
     configuration.setAggressiveLazyLoading(booleanValueOf(props.getProperty("aggressiveLazyLoading"), false));
     configuration.setMultipleResultSetsEnabled(booleanValueOf(props.getProperty("multipleResultSetsEnabled"), true));
     configuration.setUseColumnLabel(booleanValueOf(props.getProperty("useColumnLabel"), true));
     configuration.setUseGeneratedKeys(booleanValueOf(props.getProperty("useGeneratedKeys"), false));
     configuration.setDefaultExecutorType(ExecutorType.valueOf(props.getProperty("defaultExecutorType", "SIMPLE")));
+    configuration.setBatchReordering(booleanValueOf(props.getProperty("batchReordering"), false));
+    configuration.setMaxBatchSize(integerValueOf(props.getProperty("maxBatchSize"), 0));
+    configuration.setMultiRowInsertWidth(integerValueOf(props.getProperty("multiRowInsertWidth"), 0));
+    configuration.setBatchFlushSize(integerValueOf(props.getProperty("batchFlushSize"), 0));
+    configuration.setBatchFlushBytes(longValueOf(props.getProperty("batchFlushBytes"), 0L));
+    configuration.setBatchResultRetention(BatchResultRetention.valueOf(props.getProperty("batchResultRetention", "PARAMETERS")));
+    configuration.setBatchFlushListener((BatchFlushListener) createInstance(props.getProperty("batchFlushListener")));
+    configuration.setMapperParsingParallelism(integerValueOf(props.getProperty("mapperParsingParallelism"), 0));
     configuration.setDefaultStatementTimeout(integerValueOf(props.getProperty("defaultStatementTimeout"), null));
     configuration.setDefaultFetchSize(integerValueOf(props.getProperty("defaultFetchSize"), null));
+    configuration.setAdaptiveFetchSize(booleanValueOf(props.getProperty("adaptiveFetchSize"), false));
+    configuration.setStreamingCursorFetch(booleanValueOf(props.getProperty("streamingCursorFetch"), false));
+    configuration.setCoalesceWaitTimeout(longValueOf(props.getProperty("coalesceWaitTimeout"), 5000L));
+    configuration.setBatchSelectSize(integerValueOf(props.getProperty("batchSelectSize"), 100));
     configuration.setDefaultResultSetType(resolveResultSetType(props.getProperty("defaultResultSetType")));
     configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
     configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
@@ -310,6 +336,7 @@ public class XMLConfigBuilder extends BaseBuilder {
     configuration.setReturnInstanceForEmptyRow(booleanValueOf(props.getProperty("returnInstanceForEmptyRow"), false));
     configuration.setLogPrefix(props.getProperty("logPrefix"));
     configuration.setConfigurationFactory(resolveClass(props.getProperty("configurationFactory")));
+    configuration.setAccessorStrategy(AccessorStrategy.valueOf(props.getProperty("accessorStrategy", "REFLECTION")));
   }
 
   private void environmentsElement(XNode context) throws Exception {
@@ -430,48 +457,139 @@ public class XMLConfigBuilder extends BaseBuilder {
   private void mapperElement(XNode parent) throws Exception {
     // parent是Configuration配置文件中的<mappers>标签
     if (parent != null) {
-      //遍历<mappers>标签下的所有子标签
-      for (XNode child : parent.getChildren()) {
-        //加载package包下的所有mapper
-        // 处理mappers的子节点，即mapper节点或者package节点
-        if ("package".equals(child.getName())) { // package节点
-          // 取出包的路径
-          String mapperPackage = child.getStringAttribute("name");
-          // 全部加入Mappers中
-          // 加载packege包下的所有mapper
-          configuration.addMappers(mapperPackage);
-        } else {
-          // resource、url、class这三个属性只有一个生效
-          //按resource或url或class加载单个mapper
-          String resource = child.getStringAttribute("resource");
-          String url = child.getStringAttribute("url");
-          String mapperClass = child.getStringAttribute("class");
-          if (resource != null && url == null && mapperClass == null) {
-            ErrorContext.instance().resource(resource);
-            // 获取文件的输入流
-            InputStream inputStream = Resources.getResourceAsStream(resource);
-            // 使用XMLMapperBuilder解析Mapper文件
-            XMLMapperBuilder mapperParser = new XMLMapperBuilder(inputStream, configuration, resource, configuration.getSqlFragments());
-            //解析xml文件流
-            mapperParser.parse();
-          } else if (resource == null && url != null && mapperClass == null) {
-            ErrorContext.instance().resource(url);
-            // 从网络获得输入流
-            InputStream inputStream = Resources.getUrlAsStream(url);
-            // 使用XMLMapperBuilder解析Mapper文件
-            XMLMapperBuilder mapperParser = new XMLMapperBuilder(inputStream, configuration, url, configuration.getSqlFragments());
-            //解析xml文件流
-            mapperParser.parse();
-          } else if (resource == null && url == null && mapperClass != null) {
-            // 配置的不是Mapper文件，而是Mapper接口
-            Class<?> mapperInterface = Resources.classForName(mapperClass);
-            //加载指定接口的mapper
-            configuration.addMapper(mapperInterface);
+      List<XNode> children = parent.getChildren();
+      // 并行模式下先在线程池中读取所有映射文件、加载所有映射接口，注册仍在当前线程按声明顺序进行
+      int parallelism = configuration.getMapperParsingParallelism();
+      ForkJoinPool pool = parallelism > 1 && children.size() > 1 ? newMapperParsingPool(parallelism) : null;
+      try {
+        List<Future<Object>> preloaded = pool == null ? null : preloadMappers(pool, children);
+        //遍历<mappers>标签下的所有子标签
+        for (int i = 0; i < children.size(); i++) {
+          XNode child = children.get(i);
+          //加载package包下的所有mapper
+          // 处理mappers的子节点，即mapper节点或者package节点
+          if ("package".equals(child.getName())) { // package节点
+            // 取出包的路径
+            String mapperPackage = child.getStringAttribute("name");
+            // 全部加入Mappers中
+            // 加载packege包下的所有mapper
+            configuration.addMappers(mapperPackage);
           } else {
-            throw new BuilderException("A mapper element may only specify a url, resource or class, but not more than one.");
+            // resource、url、class这三个属性只有一个生效
+            //按resource或url或class加载单个mapper
+            String resource = child.getStringAttribute("resource");
+            String url = child.getStringAttribute("url");
+            String mapperClass = child.getStringAttribute("class");
+            if (resource != null && url == null && mapperClass == null) {
+              ErrorContext.instance().resource(resource);
+              // 使用XMLMapperBuilder解析Mapper文件
+              XMLMapperBuilder mapperParser;
+              if (preloaded != null) {
+                mapperParser = new XMLMapperBuilder((XPathParser) getPreloaded(preloaded.get(i)), configuration, resource, configuration.getSqlFragments());
+              } else {
+                // 获取文件的输入流
+                InputStream inputStream = Resources.getResourceAsStream(resource);
+                mapperParser = new XMLMapperBuilder(inputStream, configuration, resource, configuration.getSqlFragments());
+              }
+              //解析xml文件流
+              mapperParser.parse();
+            } else if (resource == null && url != null && mapperClass == null) {
+              ErrorContext.instance().resource(url);
+              // 使用XMLMapperBuilder解析Mapper文件
+              XMLMapperBuilder mapperParser;
+              if (preloaded != null) {
+                mapperParser = new XMLMapperBuilder((XPathParser) getPreloaded(preloaded.get(i)), configuration, url, configuration.getSqlFragments());
+              } else {
+                // 从网络获得输入流
+                InputStream inputStream = Resources.getUrlAsStream(url);
+                mapperParser = new XMLMapperBuilder(inputStream, configuration, url, configuration.getSqlFragments());
+              }
+              //解析xml文件流
+              mapperParser.parse();
+            } else if (resource == null && url == null && mapperClass != null) {
+              // 配置的不是Mapper文件，而是Mapper接口
+              Class<?> mapperInterface = preloaded != null ? (Class<?>) getPreloaded(preloaded.get(i)) : Resources.classForName(mapperClass);
+              //加载指定接口的mapper
+              configuration.addMapper(mapperInterface);
+            } else {
+              throw new BuilderException("A mapper element may only specify a url, resource or class, but not more than one.");
+            }
           }
         }
+      } finally {
+        if (pool != null) {
+          pool.shutdownNow();
+        }
+      }
+    }
+  }
+
+  /**
+   * 创建并行解析映射文件的线程池，工作线程沿用当前线程的上下文类加载器
+   * @param parallelism 线程数
+   * @return 线程池
+   */
+  private ForkJoinPool newMapperParsingPool(int parallelism) {
+    ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    return new ForkJoinPool(parallelism, pool -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setContextClassLoader(contextClassLoader);
+      return thread;
+    }, null, false);
+  }
+
+  /**
+   * 在线程池中读取并解析所有映射文件，加载所有映射接口。这一阶段不修改Configuration
+   * @param pool 线程池
+   * @param children mappers节点的子节点
+   * @return 与子节点一一对应的结果：映射文件对应XPathParser，映射接口对应Class，package节点和非法节点对应null
+   */
+  private List<Future<Object>> preloadMappers(ForkJoinPool pool, List<XNode> children) {
+    List<Future<Object>> preloaded = new ArrayList<>(children.size());
+    for (XNode child : children) {
+      String resource = child.getStringAttribute("resource");
+      String url = child.getStringAttribute("url");
+      String mapperClass = child.getStringAttribute("class");
+      Callable<Object> task;
+      if ("package".equals(child.getName())) {
+        task = () -> null;
+      } else if (resource != null && url == null && mapperClass == null) {
+        task = () -> {
+          try (InputStream inputStream = Resources.getResourceAsStream(resource)) {
+            return new XPathParser(inputStream, true, configuration.getVariables(), new XMLMapperEntityResolver());
+          }
+        };
+      } else if (resource == null && url != null && mapperClass == null) {
+        task = () -> {
+          try (InputStream inputStream = Resources.getUrlAsStream(url)) {
+            return new XPathParser(inputStream, true, configuration.getVariables(), new XMLMapperEntityResolver());
+          }
+        };
+      } else if (resource == null && url == null && mapperClass != null) {
+        task = () -> Resources.classForName(mapperClass);
+      } else {
+        task = () -> null;
+      }
+      preloaded.add(pool.submit(task));
+    }
+    return preloaded;
+  }
+
+  /**
+   * 等待并取出预先读取的结果。读取时发生的异常原样抛出，与依次解析时抛出的异常相同
+   * @param future 预先读取的结果
+   * @return XPathParser或者映射接口
+   * @throws Exception 读取时发生的异常
+   */
+  private Object getPreloaded(Future<Object> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
       }
+      throw (Error) cause;
     }
   }
 
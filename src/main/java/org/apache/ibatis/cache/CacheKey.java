@@ -16,8 +16,7 @@
 package org.apache.ibatis.cache;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.StringJoiner;
 
 import org.apache.ibatis.reflection.ArrayUtil;
@@ -27,38 +26,40 @@ import org.apache.ibatis.reflection.ArrayUtil;
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  private static final long serialVersionUID = -7474564014564719813L;
 
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
-  private static final int DEFAULT_MULTIPLYER = 37;
-  private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+  private static final Object[] EMPTY_UPDATES = new Object[0];
 
-  // 乘数，用来计算hashcode时使用
-  private final int multiplier;
-  // 哈希值，整个CacheKey的哈希值。如果两个CacheKey该值不同，则两个CacheKey一定不同
-  private int hashcode;
-  // 求和校验值，整个CacheKey的求和校验值。如果两个CacheKey该值不同，则两个CacheKey一定不同
+  // 64位哈希值，按更新顺序混合每次更新的参数得到。如果两个CacheKey该值不同，则两个CacheKey一定不同
   private long checksum;
   // 更新次数，整个CacheKey的更新次数
   private int count;
-  // 更新历史
-  private List<Object> updateList;
+  // 更新历史，只有前count个元素有效
+  private Object[] updateList;
 
   public CacheKey() {
-    this.hashcode = DEFAULT_HASHCODE;
-    this.multiplier = DEFAULT_MULTIPLYER;
-    this.count = 0;
-    this.updateList = new ArrayList<>();
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * 按预计的更新次数创建CacheKey，更新次数不超过该值时不会再分配内存
+   * @param expectedUpdateCount 预计的更新次数
+   */
+  public CacheKey(int expectedUpdateCount) {
+    this.updateList = expectedUpdateCount > 0 ? new Object[expectedUpdateCount] : EMPTY_UPDATES;
   }
 
   public CacheKey(Object[] objects) {
-    this();
+    this(objects.length);
     updateAll(objects);
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   /**
@@ -68,13 +69,17 @@ public class CacheKey implements Cloneable, Serializable {
   public void update(Object object) {
     int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object);
 
-    count++;
-    checksum += baseHashCode;
-    baseHashCode *= count;
-
-    hashcode = multiplier * hashcode + baseHashCode;
+    // 与顺序相关的64位混合，避免仅靠求和与32位哈希区分不同的键
+    long hash = checksum * HASH_MULTIPLIER + baseHashCode;
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    checksum = hash;
 
-    updateList.add(object);
+    if (count == updateList.length) {
+      updateList = Arrays.copyOf(updateList, Math.max(DEFAULT_CAPACITY, count << 1));
+    }
+    updateList[count++] = object;
   }
 
   public void updateAll(Object[] objects) {
@@ -99,10 +104,7 @@ public class CacheKey implements Cloneable, Serializable {
       return false;
     }
     final CacheKey cacheKey = (CacheKey) object;
-    // 依次通过hashcode、checksum、count判断。必须完全一致才相等
-    if (hashcode != cacheKey.hashcode) {
-      return false;
-    }
+    // 依次通过checksum、count判断。必须完全一致才相等
     if (checksum != cacheKey.checksum) {
       return false;
     }
@@ -110,11 +112,11 @@ public class CacheKey implements Cloneable, Serializable {
       return false;
     }
 
-    // 详细比较变更历史中的每次变更
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
-      if (!ArrayUtil.equals(thisObject, thatObject)) {
+    // 详细比较变更历史中的每次变更。语句id、静态SQL等通常是同一个对象，先比较引用
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
+      if (thisObject != thatObject && !ArrayUtil.equals(thisObject, thatObject)) {
         return false;
       }
     }
@@ -123,22 +125,24 @@ public class CacheKey implements Cloneable, Serializable {
 
   @Override
   public int hashCode() {
-    return hashcode;
+    return (int) (checksum ^ (checksum >>> 32));
   }
 
   @Override
   public String toString() {
     StringJoiner returnValue = new StringJoiner(":");
-    returnValue.add(String.valueOf(hashcode));
+    returnValue.add(String.valueOf(hashCode()));
     returnValue.add(String.valueOf(checksum));
-    updateList.stream().map(ArrayUtil::toString).forEach(returnValue::add);
+    for (int i = 0; i < count; i++) {
+      returnValue.add(ArrayUtil.toString(updateList[i]));
+    }
     return returnValue.toString();
   }
 
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<>(updateList);
+    clonedCacheKey.updateList = Arrays.copyOf(updateList, updateList.length);
     return clonedCacheKey;
   }
 
@@ -0,0 +1,26 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * 标记接口，实现它的{@link Cache}可以被多个线程并发访问，不需要外部加锁。
+ *
+ * 最外层的淘汰装饰器实现该接口时，{@link org.apache.ibatis.mapping.CacheBuilder}不再用
+ * {@link org.apache.ibatis.cache.decorators.SynchronizedCache}包装缓存。
+ */
+public interface ThreadSafeCache extends Cache {
+
+}
@@ -16,9 +16,9 @@
 package org.apache.ibatis.cache.decorators;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
@@ -30,6 +30,8 @@ import org.apache.ibatis.cache.CacheException;
  * It sets a lock over a cache key when the element is not found in cache.
  * This way, other threads will wait until this element is filled instead of hitting the database.
  *
+ * 锁只在被持有期间存在于映射表中，释放时随即移除，因此映射表的大小不会超过同时被锁住的键的数目。
+ *
  * @author Eduardo Macarron
  *
  */
@@ -39,8 +41,14 @@ public class BlockingCache implements Cache {
   private long timeout;
   // 被装饰对象
   private final Cache delegate;
-  // 锁的映射表。键为缓存记录的键，值为对应的锁。
-  private final ConcurrentHashMap<Object, ReentrantLock> locks;
+  // 锁的映射表。键为缓存记录的键，值为当前持有的锁。
+  private final ConcurrentHashMap<Object, KeyLock> locks;
+  // 需要等待才获得锁的次数
+  private final LongAdder lockWaitCount = new LongAdder();
+  // 等待锁的累计时间，单位纳秒
+  private final LongAdder lockWaitTime = new LongAdder();
+  // 等待锁超时的次数
+  private final LongAdder lockTimeoutCount = new LongAdder();
 
   public BlockingCache(Cache delegate) {
     this.delegate = delegate;
@@ -106,34 +114,54 @@ public class BlockingCache implements Cache {
     delegate.clear();
   }
 
-  /**
-   * 找出指定键的锁
-   * @param key 指定的键
-   * @return 该键对应的锁
-   */
-  private ReentrantLock getLockForKey(Object key) {
-    return locks.computeIfAbsent(key, k -> new ReentrantLock());
-  }
-
   /**
    * 获取某个键的锁
    * @param key 数据的键
    */
   private void acquireLock(Object key) {
-    // 找出指定对象的锁
-    Lock lock = getLockForKey(key);
-    if (timeout > 0) {
+    Thread current = Thread.currentThread();
+    KeyLock newLock = null;
+    long waitStart = 0;
+    for (;;) {
+      KeyLock lock = locks.get(key);
+      if (lock == null) {
+        if (newLock == null) {
+          newLock = new KeyLock(current);
+        }
+        lock = locks.putIfAbsent(key, newLock);
+        if (lock == null) {
+          // 获得了锁
+          break;
+        }
+      }
+      if (lock.owner == current) {
+        // 重入
+        lock.holdCount++;
+        break;
+      }
+      // 锁被其他线程持有，等待其释放后重新竞争
+      if (waitStart == 0) {
+        waitStart = System.nanoTime();
+        lockWaitCount.increment();
+      }
       try {
-        boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
-        if (!acquired) {
-          throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());
+        if (timeout > 0) {
+          long remaining = TimeUnit.MILLISECONDS.toNanos(timeout) - (System.nanoTime() - waitStart);
+          if (remaining <= 0 || !lock.released.await(remaining, TimeUnit.NANOSECONDS)) {
+            lockWaitTime.add(System.nanoTime() - waitStart);
+            lockTimeoutCount.increment();
+            throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());
+          }
+        } else {
+          lock.released.await();
         }
       } catch (InterruptedException e) {
+        lockWaitTime.add(System.nanoTime() - waitStart);
         throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
       }
-    } else {
-      // 锁住
-      lock.lock();
+    }
+    if (waitStart != 0) {
+      lockWaitTime.add(System.nanoTime() - waitStart);
     }
   }
 
@@ -143,10 +171,11 @@ public class BlockingCache implements Cache {
    */
   private void releaseLock(Object key) {
     // 找出指定对象的锁
-    ReentrantLock lock = locks.get(key);
-    if (lock.isHeldByCurrentThread()) {
-      // 解锁
-      lock.unlock();
+    KeyLock lock = locks.get(key);
+    if (lock != null && lock.owner == Thread.currentThread() && --lock.holdCount == 0) {
+      // 解锁，并唤醒所有等待者
+      locks.remove(key, lock);
+      lock.released.countDown();
     }
   }
 
@@ -157,4 +186,44 @@ public class BlockingCache implements Cache {
   public void setTimeout(long timeout) {
     this.timeout = timeout;
   }
+
+  /**
+   * 获取当前被锁住的键的数目
+   * @return 被锁住的键的数目
+   */
+  public int getLockCount() {
+    return locks.size();
+  }
+
+  public long getLockWaitCount() {
+    return lockWaitCount.sum();
+  }
+
+  /**
+   * 获取等待锁的累计时间
+   * @return 累计时间，单位毫秒
+   */
+  public long getLockWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(lockWaitTime.sum());
+  }
+
+  public long getLockTimeoutCount() {
+    return lockTimeoutCount.sum();
+  }
+
+  /**
+   * 某个键上被持有的锁
+   */
+  private static final class KeyLock {
+    // 持有锁的线程
+    private final Thread owner;
+    // 锁释放时打开
+    private final CountDownLatch released = new CountDownLatch(1);
+    // 重入次数，只由持有锁的线程访问
+    private int holdCount = 1;
+
+    KeyLock(Thread owner) {
+      this.owner = owner;
+    }
+  }
 }
@@ -0,0 +1,353 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.ThreadSafeCache;
+
+/**
+ * 分段LRU缓存装饰器，不需要{@link SynchronizedCache}即可并发使用。
+ *
+ * 数据保存在ConcurrentHashMap中，读操作不加锁。每次命中只是把节点记录到按线程分条的环形缓冲区，
+ * 缓冲区将满时由某个线程尝试获取淘汰锁，批量地把访问记录应用到淘汰顺序上。缓冲区满时直接丢弃访问记录，
+ * 只会让淘汰顺序略微不精确，不影响正确性。
+ * 淘汰顺序采用分段LRU：新数据进入试用段，再次被访问后晋升到保护段，淘汰总是优先发生在试用段。
+ *
+ * 被装饰对象只用来提供缓存id，数据不会写入被装饰对象。
+ */
+public class ConcurrentLruCache implements ThreadSafeCache {
+
+  // 每个读缓冲区的容量，必须是2的幂
+  private static final int READ_BUFFER_SIZE = 32;
+  // 读缓冲区中积累了这么多记录后尝试清空
+  private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+  // 保护段占总容量的比例
+  private static final double PROTECTED_PERCENTAGE = 0.8;
+
+  // 被装饰对象
+  private final Cache delegate;
+  // 缓存数据
+  private final ConcurrentHashMap<Object, Node> data = new ConcurrentHashMap<>();
+  // 按线程分条的读缓冲区
+  private final ReadBuffer[] readBuffers;
+  // 维护淘汰顺序时使用的锁
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  // 试用段，头部是最久未被访问的节点
+  private final AccessOrderQueue probation = new AccessOrderQueue();
+  // 保护段，头部是最久未被访问的节点
+  private final AccessOrderQueue protectedQueue = new AccessOrderQueue();
+
+  // 缓存容量
+  private volatile int size;
+  // 保护段容量
+  private int protectedSize;
+
+  /**
+   * ConcurrentLruCache构造方法
+   * @param delegate 被装饰对象
+   */
+  public ConcurrentLruCache(Cache delegate) {
+    this.delegate = delegate;
+    int stripes = 1;
+    while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+      stripes <<= 1;
+    }
+    this.readBuffers = new ReadBuffer[stripes];
+    for (int i = 0; i < stripes; i++) {
+      readBuffers[i] = new ReadBuffer();
+    }
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return data.size();
+  }
+
+  /**
+   * 设置缓存空间大小
+   * @param size 缓存空间大小
+   */
+  public void setSize(final int size) {
+    evictionLock.lock();
+    try {
+      this.size = size;
+      this.protectedSize = (int) (size * PROTECTED_PERCENTAGE);
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * 向缓存写入一条信息
+   * @param key 信息的键
+   * @param value 信息的值
+   */
+  @Override
+  public void putObject(Object key, Object value) {
+    Node node = new Node(key, value);
+    Node prior = data.put(key, node);
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      if (prior != null) {
+        unlink(prior);
+      }
+      // 并发写入同一个键时，只有仍在缓存中的那个节点才进入淘汰顺序
+      if (data.get(key) == node) {
+        node.queue = probation;
+        probation.addLast(node);
+      }
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * 从缓存中读取一条信息
+   * @param key 信息的键
+   * @return 信息的值
+   */
+  @Override
+  public Object getObject(Object key) {
+    Node node = data.get(key);
+    if (node == null) {
+      return null;
+    }
+    // 只记录访问，不立刻调整淘汰顺序
+    ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+    if (buffer.offer(node) >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+      try {
+        drainReadBuffers();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+    return node.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Node node = data.remove(key);
+    if (node == null) {
+      return null;
+    }
+    evictionLock.lock();
+    try {
+      unlink(node);
+    } finally {
+      evictionLock.unlock();
+    }
+    return node.value;
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      for (Node node = probation.head; node != null; node = node.next) {
+        data.remove(node.key, node);
+      }
+      for (Node node = protectedQueue.head; node != null; node = node.next) {
+        data.remove(node.key, node);
+      }
+      probation.clear();
+      protectedQueue.clear();
+      delegate.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * 将读缓冲区中的访问记录应用到淘汰顺序上。调用者必须持有淘汰锁
+   */
+  private void drainReadBuffers() {
+    for (ReadBuffer buffer : readBuffers) {
+      buffer.drainTo(this);
+    }
+  }
+
+  /**
+   * 处理一次访问：试用段的节点晋升到保护段，保护段的节点移到队尾。调用者必须持有淘汰锁
+   * @param node 被访问的节点
+   */
+  private void onAccess(Node node) {
+    if (node.queue == probation) {
+      probation.remove(node);
+      node.queue = protectedQueue;
+      protectedQueue.addLast(node);
+      // 保护段超出容量时，将其中最久未被访问的节点降级到试用段
+      while (protectedQueue.count > protectedSize) {
+        Node demoted = protectedQueue.head;
+        protectedQueue.remove(demoted);
+        demoted.queue = probation;
+        probation.addLast(demoted);
+      }
+    } else if (node.queue == protectedQueue) {
+      protectedQueue.moveToLast(node);
+    }
+    // 已被删除的节点不在任何一段中，直接忽略
+  }
+
+  /**
+   * 淘汰节点直到数据量不超过容量。调用者必须持有淘汰锁
+   */
+  private void evict() {
+    while (probation.count + protectedQueue.count > size) {
+      Node victim = probation.head != null ? probation.head : protectedQueue.head;
+      unlink(victim);
+      data.remove(victim.key, victim);
+    }
+  }
+
+  /**
+   * 将节点从所在的段中移除。调用者必须持有淘汰锁
+   * @param node 节点
+   */
+  private void unlink(Node node) {
+    if (node.queue != null) {
+      node.queue.remove(node);
+      node.queue = null;
+    }
+  }
+
+  /**
+   * 缓存中的一个节点
+   */
+  private static final class Node {
+    private final Object key;
+    private final Object value;
+    // 以下字段只在持有淘汰锁时访问
+    private AccessOrderQueue queue;
+    private Node prev;
+    private Node next;
+
+    Node(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /**
+   * 由节点组成的双向链表，头部是最久未被访问的节点。只在持有淘汰锁时访问
+   */
+  private static final class AccessOrderQueue {
+    private Node head;
+    private Node tail;
+    private int count;
+
+    void addLast(Node node) {
+      node.prev = tail;
+      node.next = null;
+      if (tail == null) {
+        head = node;
+      } else {
+        tail.next = node;
+      }
+      tail = node;
+      count++;
+    }
+
+    void remove(Node node) {
+      if (node.prev == null) {
+        head = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        tail = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+      count--;
+    }
+
+    void moveToLast(Node node) {
+      if (tail != node) {
+        remove(node);
+        addLast(node);
+      }
+    }
+
+    void clear() {
+      head = null;
+      tail = null;
+      count = 0;
+    }
+  }
+
+  /**
+   * 有损的环形读缓冲区，多个线程写入，持有淘汰锁的线程读出
+   */
+  private static final class ReadBuffer {
+    private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong writeCounter = new AtomicLong();
+    private volatile long readCounter;
+
+    /**
+     * 记录一次访问，缓冲区已满时丢弃该记录
+     * @param node 被访问的节点
+     * @return 缓冲区中待处理的记录数
+     */
+    int offer(Node node) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      int pending = (int) (tail - head);
+      if (pending >= READ_BUFFER_SIZE) {
+        return pending;
+      }
+      if (writeCounter.compareAndSet(tail, tail + 1)) {
+        slots.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), node);
+        return pending + 1;
+      }
+      // 与其他线程竞争失败时同样丢弃该记录
+      return pending;
+    }
+
+    void drainTo(ConcurrentLruCache cache) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      for (; head < tail; head++) {
+        int index = (int) (head & (READ_BUFFER_SIZE - 1));
+        Node node = slots.get(index);
+        if (node == null) {
+          // 写入者已占位但还未写入，下次再处理
+          break;
+        }
+        slots.lazySet(index, null);
+        cache.onAccess(node);
+      }
+      readCounter = head;
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor;
+
+/**
+ * 支持背压的响应式流接口，与Java 9的{@code java.util.concurrent.Flow}等价。
+ *
+ * MyBatis仍然支持Java 8，因此在这里定义与java.util.concurrent.Flow和Reactive Streams方法完全相同的接口，
+ * 与这些接口之间可以直接用方法引用相互适配。
+ */
+public final class Flow {
+
+  private Flow() {
+    // Prevent Instantiation
+  }
+
+  /**
+   * 数据的发布者
+   * @param <T> 数据的类型
+   */
+  @FunctionalInterface
+  public interface Publisher<T> {
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * 数据的订阅者
+   * @param <T> 数据的类型
+   */
+  public interface Subscriber<T> {
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    void onError(Throwable throwable);
+
+    void onComplete();
+  }
+
+  /**
+   * 连接发布者和订阅者的订阅，订阅者通过它请求数据或者取消订阅
+   */
+  public interface Subscription {
+    void request(long n);
+
+    void cancel();
+  }
+
+}
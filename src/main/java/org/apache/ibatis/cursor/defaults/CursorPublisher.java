@@ -0,0 +1,190 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor.defaults;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.Flow;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+
+/**
+ * 由{@link Cursor}提供数据的{@link Flow.Publisher}。
+ *
+ * 每次订阅都会在自己的自动提交会话中打开一个游标，只按照订阅者请求的数量从结果集中读取数据。
+ * 读取和发送数据在{@link Configuration#getAsyncExecutor()}中进行，同一时刻最多只有一个线程在处理同一个订阅。
+ * 数据发送完毕、出错或者订阅被取消时，游标、语句和连接随会话一起释放。
+ *
+ * @param <T> 结果对象的类型
+ */
+public class CursorPublisher<T> implements Flow.Publisher<T> {
+
+  private final Configuration configuration;
+  private final SqlSessionFactory sqlSessionFactory;
+  // 在会话中打开游标
+  private final Function<SqlSession, Cursor<T>> cursorOpener;
+
+  public CursorPublisher(Configuration configuration, Function<SqlSession, Cursor<T>> cursorOpener) {
+    this.configuration = configuration;
+    this.sqlSessionFactory = new DefaultSqlSessionFactory(configuration);
+    this.cursorOpener = cursorOpener;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super T> subscriber) {
+    Objects.requireNonNull(subscriber, "subscriber");
+    CursorSubscription subscription = new CursorSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+  }
+
+  private final class CursorSubscription implements Flow.Subscription, Runnable {
+
+    private final Flow.Subscriber<? super T> subscriber;
+    // 尚未满足的请求数
+    private final AtomicLong requested = new AtomicLong();
+    // 等待处理的信号数，由0变为非0的线程负责提交处理任务
+    private final AtomicInteger pendingSignals = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile boolean invalidRequest;
+
+    // 以下字段只在处理任务中访问
+    private SqlSession sqlSession;
+    private Cursor<T> cursor;
+    private Iterator<T> iterator;
+    private boolean done;
+
+    CursorSubscription(Flow.Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        invalidRequest = true;
+      } else {
+        requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+      }
+      signal();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      signal();
+    }
+
+    private void signal() {
+      if (pendingSignals.getAndIncrement() == 0) {
+        try {
+          configuration.getAsyncExecutor().execute(this);
+        } catch (RuntimeException e) {
+          // 线程池拒绝任务，就地结束订阅
+          if (!done) {
+            done = true;
+            release();
+            subscriber.onError(e);
+          }
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      int missed = 1;
+      do {
+        if (!done) {
+          drain();
+        }
+        missed = pendingSignals.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void drain() {
+      try {
+        if (cancelled) {
+          finish();
+          return;
+        }
+        if (invalidRequest) {
+          finish();
+          subscriber.onError(new IllegalArgumentException("Subscription.request requires a positive number of items"));
+          return;
+        }
+        if (iterator == null) {
+          sqlSession = sqlSessionFactory.openSession(true);
+          cursor = cursorOpener.apply(sqlSession);
+          iterator = cursor.iterator();
+        }
+        long demand = requested.get();
+        long emitted = 0;
+        while (emitted != demand) {
+          if (cancelled) {
+            finish();
+            return;
+          }
+          if (!iterator.hasNext()) {
+            finish();
+            subscriber.onComplete();
+            return;
+          }
+          subscriber.onNext(iterator.next());
+          emitted++;
+        }
+        if (demand != Long.MAX_VALUE) {
+          requested.addAndGet(-emitted);
+        }
+      } catch (Throwable t) {
+        finish();
+        subscriber.onError(t);
+      }
+    }
+
+    private void finish() {
+      done = true;
+      release();
+    }
+
+    private void release() {
+      try {
+        if (cursor != null) {
+          cursor.close();
+        }
+      } catch (IOException e) {
+        // ignore
+      } finally {
+        cursor = null;
+        iterator = null;
+        if (sqlSession != null) {
+          try {
+            sqlSession.close();
+          } catch (RuntimeException e) {
+            // ignore
+          }
+          sqlSession = null;
+        }
+      }
+    }
+  }
+
+}
@@ -126,6 +126,7 @@ public class DefaultCursor<T> implements Cursor<T> {
     ResultSet rs = rsw.getResultSet();
     try {
       if (rs != null) {
+        resultSetHandler.recordFetchStatistics(rsw);
         rs.close();
       }
     } catch (SQLException e) {
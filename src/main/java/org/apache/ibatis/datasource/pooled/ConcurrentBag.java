@@ -0,0 +1,282 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 存放连接池中连接条目的无锁容器。
+ *
+ * 借出时依次尝试：当前线程最近归还过的连接、共享列表中的空闲连接、其他线程归还时直接移交的连接。
+ * 每个条目的状态切换都通过CAS完成，借出和归还都不需要获取全局锁。
+ */
+class ConcurrentBag {
+
+  // 线程本地列表最多保留的条目数
+  private static final int MAX_THREAD_LOCAL_ENTRIES = 16;
+
+  // 所有的条目，包括空闲的、借出的和保留的
+  private final CopyOnWriteArrayList<Entry> sharedList = new CopyOnWriteArrayList<>();
+  // 每个线程最近归还的条目，使用弱引用避免线程持有已移除的连接
+  private final ThreadLocal<List<WeakReference<Entry>>> threadList = ThreadLocal.withInitial(() -> new ArrayList<>(MAX_THREAD_LOCAL_ENTRIES));
+  // 正在等待连接的线程数
+  private final AtomicInteger waiters = new AtomicInteger();
+  // 空闲条目的数目
+  private final AtomicInteger idleCount = new AtomicInteger();
+  // 归还线程直接将条目移交给等待线程的队列
+  private final SynchronousQueue<Entry> handoffQueue = new SynchronousQueue<>(true);
+
+  /**
+   * 借出一个空闲条目
+   * @param timeout 没有空闲条目时等待移交的时长，小于等于0表示不等待
+   * @param unit 时长单位
+   * @return 借出的条目，没有可用条目时返回null
+   * @throws InterruptedException 等待被打断
+   */
+  Entry borrow(long timeout, TimeUnit unit) throws InterruptedException {
+    // 优先使用当前线程上次归还的条目
+    List<WeakReference<Entry>> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) {
+      Entry entry = list.remove(i).get();
+      if (entry != null && entry.compareAndSetState(Entry.STATE_NOT_IN_USE, Entry.STATE_IN_USE)) {
+        idleCount.decrementAndGet();
+        return entry;
+      }
+    }
+
+    // 先登记为等待者，保证此后归还的条目一定会尝试移交给自己
+    waiters.incrementAndGet();
+    try {
+      for (Entry entry : sharedList) {
+        if (entry.compareAndSetState(Entry.STATE_NOT_IN_USE, Entry.STATE_IN_USE)) {
+          idleCount.decrementAndGet();
+          return entry;
+        }
+      }
+
+      long remaining = unit.toNanos(timeout);
+      while (remaining > 0) {
+        long start = System.nanoTime();
+        Entry entry = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (entry == null) {
+          return null;
+        }
+        if (entry.compareAndSetState(Entry.STATE_NOT_IN_USE, Entry.STATE_IN_USE)) {
+          idleCount.decrementAndGet();
+          return entry;
+        }
+        // 被移交的条目已被其他线程抢走，继续等待
+        remaining -= System.nanoTime() - start;
+      }
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /**
+   * 归还一个借出的条目
+   * @param entry 被归还的条目
+   */
+  void requite(Entry entry) {
+    entry.setState(Entry.STATE_NOT_IN_USE);
+    idleCount.incrementAndGet();
+
+    // 存在等待者时，直接将条目移交出去
+    for (int i = 0; waiters.get() > 0; i++) {
+      if (entry.getState() != Entry.STATE_NOT_IN_USE || handoffQueue.offer(entry)) {
+        return;
+      } else if ((i & 0xff) == 0xff) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+      } else {
+        Thread.yield();
+      }
+    }
+
+    List<WeakReference<Entry>> list = threadList.get();
+    if (list.size() < MAX_THREAD_LOCAL_ENTRIES) {
+      list.add(new WeakReference<>(entry));
+    }
+  }
+
+  /**
+   * 加入一个条目，条目的初始状态由调用者决定
+   * @param entry 新的条目
+   */
+  void add(Entry entry) {
+    sharedList.add(entry);
+    if (entry.getState() == Entry.STATE_NOT_IN_USE) {
+      idleCount.incrementAndGet();
+      // 有等待者时尝试直接移交
+      while (waiters.get() > 0 && entry.getState() == Entry.STATE_NOT_IN_USE && !handoffQueue.offer(entry)) {
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * 从容器中移除一个条目
+   * @param entry 被移除的条目
+   * @return 是否由本次调用完成移除
+   */
+  boolean remove(Entry entry) {
+    for (;;) {
+      int state = entry.getState();
+      if (state == Entry.STATE_REMOVED) {
+        return false;
+      }
+      if (entry.compareAndSetState(state, Entry.STATE_REMOVED)) {
+        if (state == Entry.STATE_NOT_IN_USE) {
+          idleCount.decrementAndGet();
+        }
+        sharedList.remove(entry);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * 将一个空闲条目保留下来，保留期间该条目不会被借出
+   * @param entry 条目
+   * @return 是否保留成功
+   */
+  boolean reserve(Entry entry) {
+    if (entry.compareAndSetState(Entry.STATE_NOT_IN_USE, Entry.STATE_RESERVED)) {
+      idleCount.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * 取消对一个条目的保留，使其重新可以被借出
+   * @param entry 条目
+   */
+  void unreserve(Entry entry) {
+    if (entry.compareAndSetState(Entry.STATE_RESERVED, Entry.STATE_IN_USE)) {
+      requite(entry);
+    }
+  }
+
+  /**
+   * 获取所有条目的快照
+   * @return 条目列表
+   */
+  List<Entry> values() {
+    return new ArrayList<>(sharedList);
+  }
+
+  int getIdleCount() {
+    return idleCount.get();
+  }
+
+  int getWaitingThreadCount() {
+    return waiters.get();
+  }
+
+  /**
+   * 容器中的一个条目，持有真正的数据库连接以及当前借用它的代理连接
+   */
+  static final class Entry {
+
+    static final int STATE_NOT_IN_USE = 0;
+    static final int STATE_IN_USE = 1;
+    static final int STATE_RESERVED = 2;
+    static final int STATE_REMOVED = -1;
+
+    // 真正的Connection
+    private final Connection realConnection;
+    // 当前的状态
+    private final AtomicInteger state;
+    // 当前借用该条目的代理连接。超期被回收或被强制关闭时会被替换，原来的代理随之失效
+    private final AtomicReference<PooledConnection> owner = new AtomicReference<>();
+    // 创建时间
+    private volatile long createdTimestamp;
+    // 上次使用时间
+    private volatile long lastUsedTimestamp;
+    // 真正的连接上的语句缓存
+    private volatile PreparedStatementCache statementCache;
+
+    Entry(Connection realConnection, int state) {
+      this.realConnection = realConnection;
+      this.state = new AtomicInteger(state);
+      this.createdTimestamp = System.currentTimeMillis();
+      this.lastUsedTimestamp = createdTimestamp;
+    }
+
+    Connection getRealConnection() {
+      return realConnection;
+    }
+
+    int getState() {
+      return state.get();
+    }
+
+    void setState(int newState) {
+      state.set(newState);
+    }
+
+    boolean compareAndSetState(int expect, int update) {
+      return state.compareAndSet(expect, update);
+    }
+
+    PooledConnection getOwner() {
+      return owner.get();
+    }
+
+    void setOwner(PooledConnection conn) {
+      owner.set(conn);
+    }
+
+    boolean compareAndSetOwner(PooledConnection expect, PooledConnection update) {
+      return owner.compareAndSet(expect, update);
+    }
+
+    PreparedStatementCache getStatementCache() {
+      return statementCache;
+    }
+
+    void setStatementCache(PreparedStatementCache statementCache) {
+      this.statementCache = statementCache;
+    }
+
+    long getCreatedTimestamp() {
+      return createdTimestamp;
+    }
+
+    void setCreatedTimestamp(long createdTimestamp) {
+      this.createdTimestamp = createdTimestamp;
+    }
+
+    long getLastUsedTimestamp() {
+      return lastUsedTimestamp;
+    }
+
+    void setLastUsedTimestamp(long lastUsedTimestamp) {
+      this.lastUsedTimestamp = lastUsedTimestamp;
+    }
+  }
+
+}
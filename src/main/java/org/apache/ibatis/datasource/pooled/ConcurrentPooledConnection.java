@@ -0,0 +1,39 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * 由{@link ConcurrentPooledDataSource}借出的{@link PooledConnection}。
+ * 记录借出时所在的容器条目，归还时不需要再查找
+ */
+class ConcurrentPooledConnection extends PooledConnection {
+
+  // 该连接所属的容器条目
+  private final ConcurrentBag.Entry entry;
+
+  ConcurrentPooledConnection(ConcurrentBag.Entry entry, ConcurrentPooledDataSource dataSource) {
+    super(entry.getRealConnection(), dataSource);
+    this.entry = entry;
+    setCreatedTimestamp(entry.getCreatedTimestamp());
+    setLastUsedTimestamp(entry.getLastUsedTimestamp());
+    setStatementCache(entry.getStatementCache());
+  }
+
+  ConcurrentBag.Entry getEntry() {
+    return entry;
+  }
+
+}
@@ -0,0 +1,415 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * 线程安全的数据库连接池，借出和归还不通过同一个监视器串行执行。
+ *
+ * 与PooledDataSource的配置项和统计信息一致，但空闲连接存放在{@link ConcurrentBag}中：
+ * 借出时优先复用当前线程归还过的连接，归还时若有线程在等待则直接移交，全程不需要获取全局锁。
+ */
+public class ConcurrentPooledDataSource extends PooledDataSource {
+
+  private static final Log log = LogFactory.getLog(ConcurrentPooledDataSource.class);
+
+  private final ConcurrentPoolState state = new ConcurrentPoolState(this);
+
+  // 存放所有连接的容器
+  private final ConcurrentBag bag = new ConcurrentBag();
+  // 池中连接的总数，包括空闲的和借出的
+  private final AtomicInteger totalConnections = new AtomicInteger();
+
+  public ConcurrentPooledDataSource() {
+    super();
+  }
+
+  public ConcurrentPooledDataSource(UnpooledDataSource dataSource) {
+    super(dataSource);
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, String username, String password) {
+    super(driver, url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, Properties driverProperties) {
+    super(driver, url, driverProperties);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, String username, String password) {
+    super(driverClassLoader, driver, url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, Properties driverProperties) {
+    super(driverClassLoader, driver, url, driverProperties);
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return borrowConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return borrowConnection(username, password).getProxyConnection();
+  }
+
+  @Override
+  public PoolState getPoolState() {
+    return state;
+  }
+
+  int getIdleConnectionCount() {
+    return bag.getIdleCount();
+  }
+
+  int getActiveConnectionCount() {
+    return Math.max(0, totalConnections.get() - bag.getIdleCount());
+  }
+
+  /**
+   * 将活动和空闲的连接全部关闭
+   */
+  @Override
+  public void forceCloseAll() {
+    // 重新计算和更新连接类型编码
+    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    for (ConcurrentBag.Entry entry : bag.values()) {
+      if (bag.remove(entry)) {
+        totalConnections.decrementAndGet();
+        // 借出中的连接随之失效，之后归还时会被当作坏连接丢弃
+        PooledConnection owner = entry.getOwner();
+        if (owner != null && entry.compareAndSetOwner(owner, null)) {
+          owner.invalidate();
+        }
+        closeQuietly(entry.getRealConnection());
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("ConcurrentPooledDataSource forcefully closed/removed all connections.");
+    }
+  }
+
+  /**
+   * 收回一个连接
+   * @param conn 连接
+   * @throws SQLException
+   */
+  @Override
+  protected void pushConnection(PooledConnection conn) throws SQLException {
+    ConcurrentBag.Entry entry = ((ConcurrentPooledConnection) conn).getEntry();
+    // 只有当前仍持有该条目的代理连接才能归还，超期被回收或被重复关闭的连接都会失败
+    if (!entry.compareAndSetOwner(conn, null)) {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCounter.increment();
+      return;
+    }
+    if (conn.isValid()) { // 当前连接是可用的
+      state.accumulatedCheckoutTimeCounter.add(conn.getCheckoutTime());
+      try {
+        if (!conn.getRealConnection().getAutoCommit()) { // 如果连接没有设置自动提交
+          // 将未完成的操作回滚
+          conn.getRealConnection().rollback();
+        }
+      } catch (SQLException | RuntimeException e) {
+        // 条目已不属于任何代理连接，不丢弃的话它占用的名额再也无法释放
+        conn.invalidate();
+        state.badConnectionCounter.increment();
+        discardEntry(entry);
+        throw e;
+      }
+      conn.invalidate();
+      // 判断（有线程在等待或空闲连接未满） + 该连接确实属于该连接池
+      if ((bag.getWaitingThreadCount() > 0 || bag.getIdleCount() < poolMaximumIdleConnections)
+          && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+        entry.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+        // 将连接放回容器，如有等待的线程会直接移交给它
+        bag.requite(entry);
+        if (log.isDebugEnabled()) {
+          log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
+        }
+      } else { // 空闲连接已满或者该连接不属于该连接池
+        // 直接关闭连接，而不是将其放入连接池中
+        discardEntry(entry);
+        if (log.isDebugEnabled()) {
+          log.debug("Closed connection " + conn.getRealHashCode() + ".");
+        }
+      }
+    } else { // 当前连接不可用
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCounter.increment();
+      discardEntry(entry);
+    }
+  }
+
+  /**
+   * 从池化数据源中给出一个连接
+   * @param username 用户名
+   * @param password 密码
+   * @return 池化的数据库连接
+   * @throws SQLException
+   */
+  private PooledConnection borrowConnection(String username, String password) throws SQLException {
+    startHousekeeping();
+    boolean countedWait = false;
+    // 用于统计取出连接花费的时长的时间起点
+    long t = System.currentTimeMillis();
+    int localBadConnectionCount = 0;
+
+    while (true) {
+      ConcurrentBag.Entry entry;
+      try {
+        // 不等待，先尝试拿一个空闲连接
+        entry = bag.borrow(0, TimeUnit.MILLISECONDS);
+        if (entry == null) {
+          // 池中还有空余位置时新建连接
+          entry = createEntry();
+        }
+        if (entry == null) {
+          // 连接池已满，尝试回收超期不还的连接
+          entry = claimOverdueEntry();
+        }
+        if (entry == null) {
+          // 继续等待，等待有连接归还到连接池
+          if (!countedWait) {
+            // 记录发生等待的次数。某次请求等待多轮也只能算作发生了一次等待
+            state.hadToWaitCounter.increment();
+            countedWait = true;
+          }
+          if (log.isDebugEnabled()) {
+            log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+          }
+          long wt = System.currentTimeMillis();
+          entry = bag.borrow(poolTimeToWait, TimeUnit.MILLISECONDS);
+          state.accumulatedWaitTimeCounter.add(System.currentTimeMillis() - wt);
+          if (entry == null) {
+            continue;
+          }
+        }
+      } catch (InterruptedException e) {
+        break;
+      }
+
+      ConcurrentPooledConnection conn = new ConcurrentPooledConnection(entry, this);
+      // 判断连接是否可用，回滚失败的连接同样视为不可用
+      if (conn.isValid() && rollbackUncommitted(conn)) { // 如果连接可用
+        // 每个借出去的连接都到打上数据源的连接类型编码，以便在归还时确保正确
+        conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+        // 数据记录操作
+        conn.setCheckoutTimestamp(System.currentTimeMillis());
+        conn.setLastUsedTimestamp(System.currentTimeMillis());
+        entry.setOwner(conn);
+        state.requestCounter.increment();
+        state.accumulatedRequestTimeCounter.add(System.currentTimeMillis() - t);
+        return conn;
+      }
+
+      // 连接不可用
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+      }
+      state.badConnectionCounter.increment();
+      localBadConnectionCount++;
+      // 直接删除连接
+      discardEntry(entry);
+      // 如果没有一个连接能用，说明连不上数据库
+      if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
+        if (log.isDebugEnabled()) {
+          log.debug("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+        }
+        throw new SQLException("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+      }
+    }
+
+    if (log.isDebugEnabled()) {
+      log.debug("ConcurrentPooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    }
+    throw new SQLException("ConcurrentPooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+  }
+
+  /**
+   * 借出前回滚连接上未提交的操作
+   * @param conn 连接
+   * @return 是否成功，失败时连接应当丢弃
+   */
+  private boolean rollbackUncommitted(PooledConnection conn) {
+    try {
+      if (!conn.getRealConnection().getAutoCommit()) { // 该连接没有设置自动提交
+        // 回滚未提交的操作
+        conn.getRealConnection().rollback();
+      }
+      return true;
+    } catch (SQLException | RuntimeException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Could not roll back connection " + conn.getRealHashCode() + " before checkout. Cause: " + e);
+      }
+      return false;
+    }
+  }
+
+  /**
+   * 依次保留每个空闲条目，回收超龄或空闲过久的连接，并校验剩下的连接
+   */
+  @Override
+  protected void evictIdleConnections() {
+    for (ConcurrentBag.Entry entry : bag.values()) {
+      // 保留期间该条目不会被借出，若已被借出则跳过
+      if (!bag.reserve(entry)) {
+        continue;
+      }
+      if (isEvictable(entry.getCreatedTimestamp(), entry.getLastUsedTimestamp(), bag.getIdleCount() + 1)) {
+        if (log.isDebugEnabled()) {
+          log.debug("Evicting idle connection " + entry.getRealConnection().hashCode() + ".");
+        }
+        discardEntry(entry);
+      } else if (pingConnection(new ConcurrentPooledConnection(entry, this), true)) {
+        // 校验通过，重新允许借出
+        bag.unreserve(entry);
+      } else {
+        state.badConnectionCounter.increment();
+        discardEntry(entry);
+      }
+    }
+  }
+
+  /**
+   * 新建空闲连接，直到空闲连接数达到最小空闲连接数或者连接总数达到上限
+   */
+  @Override
+  protected void fillIdleConnections() {
+    int minimumIdle = Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections);
+    while (bag.getIdleCount() < minimumIdle) {
+      try {
+        ConcurrentBag.Entry entry = createEntry(ConcurrentBag.Entry.STATE_NOT_IN_USE);
+        if (entry == null) {
+          return;
+        }
+      } catch (SQLException e) {
+        log.warn("Could not create an idle connection: " + e.getMessage());
+        return;
+      }
+    }
+  }
+
+  /**
+   * 在连接总数未达上限时新建一个连接，新连接直接处于借出状态
+   * @return 新建的条目，连接池已满时返回null
+   * @throws SQLException
+   */
+  private ConcurrentBag.Entry createEntry() throws SQLException {
+    return createEntry(ConcurrentBag.Entry.STATE_IN_USE);
+  }
+
+  /**
+   * 在连接总数未达上限时新建一个连接
+   * @param initialState 新条目的初始状态
+   * @return 新建的条目，连接池已满时返回null
+   * @throws SQLException
+   */
+  private ConcurrentBag.Entry createEntry(int initialState) throws SQLException {
+    for (;;) {
+      int total = totalConnections.get();
+      if (total >= poolMaximumActiveConnections) {
+        return null;
+      }
+      if (totalConnections.compareAndSet(total, total + 1)) {
+        break;
+      }
+    }
+    try {
+      ConcurrentBag.Entry entry = new ConcurrentBag.Entry(dataSource.getConnection(), initialState);
+      entry.setStatementCache(newStatementCache());
+      bag.add(entry);
+      if (log.isDebugEnabled()) {
+        log.debug("Created connection " + entry.getRealConnection().hashCode() + ".");
+      }
+      return entry;
+    } catch (SQLException | RuntimeException e) {
+      totalConnections.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * 找到一个借出时间超过设定时长的连接，将其从原持有者手中收回
+   * @return 收回的条目，没有超期连接时返回null
+   */
+  private ConcurrentBag.Entry claimOverdueEntry() {
+    for (ConcurrentBag.Entry entry : bag.values()) {
+      PooledConnection overdue = entry.getOwner();
+      if (overdue == null || entry.getState() != ConcurrentBag.Entry.STATE_IN_USE) {
+        continue;
+      }
+      long longestCheckoutTime = overdue.getCheckoutTime();
+      if (longestCheckoutTime > poolMaximumCheckoutTime && entry.compareAndSetOwner(overdue, null)) {
+        // 声明该连接超期不还
+        state.claimedOverdueConnectionCounter.increment();
+        state.accumulatedCheckoutTimeOfOverdueConnectionsCounter.add(longestCheckoutTime);
+        state.accumulatedCheckoutTimeCounter.add(longestCheckoutTime);
+        overdue.invalidate();
+        try {
+          if (!entry.getRealConnection().getAutoCommit()) { // 如果超期不还的连接没有设置自动提交事务
+            // 尝试替它回滚事务
+            entry.getRealConnection().rollback();
+          }
+        } catch (SQLException e) {
+          // 即使替它回滚事务的操作失败，也不抛出异常，仅仅做一下记录
+          log.debug("Bad connection. Could not roll back");
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Claimed overdue connection " + overdue.getRealHashCode() + ".");
+        }
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * 将条目移出容器并关闭真正的连接
+   * @param entry 条目
+   */
+  private void discardEntry(ConcurrentBag.Entry entry) {
+    if (bag.remove(entry)) {
+      totalConnections.decrementAndGet();
+      closeQuietly(entry.getRealConnection());
+      // 腾出了位置，如有线程在等待则补充一个空闲连接直接移交给它
+      if (bag.getWaitingThreadCount() > 0) {
+        try {
+          createEntry(ConcurrentBag.Entry.STATE_NOT_IN_USE);
+        } catch (SQLException e) {
+          if (log.isDebugEnabled()) {
+            log.debug("Could not create a replacement connection: " + e.getMessage());
+          }
+        }
+      }
+    }
+  }
+
+}
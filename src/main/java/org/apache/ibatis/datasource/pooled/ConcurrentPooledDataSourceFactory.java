@@ -0,0 +1,39 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.Properties;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
+
+public class ConcurrentPooledDataSourceFactory extends UnpooledDataSourceFactory {
+
+  // 配置项与POOLED一致，只是换成了无全局锁的连接池实现
+  public ConcurrentPooledDataSourceFactory() {
+    this.dataSource = new ConcurrentPooledDataSource();
+  }
+
+  /**
+   * 设置配置信息后启动后台维护任务，以便在启动阶段预先填充连接池
+   * @param properties 配置信息
+   */
+  @Override
+  public void setProperties(Properties properties) {
+    super.setProperties(properties);
+    ((PooledDataSource) dataSource).startHousekeeping();
+  }
+
+}
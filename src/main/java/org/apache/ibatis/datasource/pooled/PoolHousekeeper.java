@@ -0,0 +1,75 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * 在守护线程中定期执行{@link PooledDataSource#housekeep()}。
+ *
+ * 只持有数据源的弱引用，数据源被回收后后台线程会自行退出
+ */
+class PoolHousekeeper implements Runnable {
+
+  private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+  private static final AtomicInteger threadNumber = new AtomicInteger();
+
+  private final WeakReference<PooledDataSource> dataSource;
+  private final ScheduledExecutorService executor;
+
+  /**
+   * 创建并立即启动一个后台维护任务，首次执行没有延迟，以便预先填充连接池
+   * @param dataSource 被维护的数据源
+   * @param period 两次维护之间的间隔，单位毫秒
+   */
+  PoolHousekeeper(PooledDataSource dataSource, long period) {
+    this.dataSource = new WeakReference<>(dataSource);
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-pool-housekeeper-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.scheduleWithFixedDelay(this, 0, period, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void run() {
+    PooledDataSource pool = dataSource.get();
+    if (pool == null) {
+      executor.shutdown();
+      return;
+    }
+    try {
+      pool.housekeep();
+    } catch (Exception e) {
+      // 不能让异常抛出，否则之后的维护任务都不会再执行
+      log.warn("Unexpected exception while maintaining the connection pool. Cause: " + e);
+    }
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+}
@@ -30,6 +30,7 @@ import org.apache.ibatis.reflection.ExceptionUtil;
 class PooledConnection implements InvocationHandler {
 
   private static final String CLOSE = "close";
+  private static final String PREPARE_STATEMENT = "prepareStatement";
   private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
   // 该连接的哈希值
@@ -49,7 +50,9 @@ class PooledConnection implements InvocationHandler {
   // 标志所在连接池的连接类型编码
   private int connectionTypeCode;
   // 连接是否可用
-  private boolean valid;
+  private volatile boolean valid;
+  // 真正的连接上的语句缓存，在该连接的多次借出之间共享。未启用时为null
+  private PreparedStatementCache statementCache;
 
   /**
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in.
@@ -210,6 +213,24 @@ class PooledConnection implements InvocationHandler {
     return System.currentTimeMillis() - checkoutTimestamp;
   }
 
+  /**
+   * Getter for the statement cache of the real connection.
+   *
+   * @return the statement cache, or null if statements are not cached
+   */
+  PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * Setter for the statement cache of the real connection.
+   *
+   * @param statementCache the statement cache
+   */
+  void setStatementCache(PreparedStatementCache statementCache) {
+    this.statementCache = statementCache;
+  }
+
   @Override
   public int hashCode() {
     return hashCode;
@@ -262,6 +283,10 @@ class PooledConnection implements InvocationHandler {
       if (!Object.class.equals(method.getDeclaringClass())) {
         checkConnection();
       }
+      if (statementCache != null && PREPARE_STATEMENT.equals(methodName) && PreparedStatementCache.isCacheable(args)) {
+        // 优先使用缓存中的语句
+        return statementCache.prepareStatement(realConnection, args);
+      }
       // 用真正的连接去执行操作
       return method.invoke(realConnection, args);
     } catch (Throwable t) {
@@ -22,6 +22,8 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -43,7 +45,7 @@ public class PooledDataSource implements DataSource {
   private final PoolState state = new PoolState(this);
 
   // 持有一个UnpooledDataSource对象
-  private final UnpooledDataSource dataSource;
+  protected final UnpooledDataSource dataSource;
 
   // 和连接池设置有关的配置项
   protected int poolMaximumActiveConnections = 10;
@@ -54,10 +56,20 @@ public class PooledDataSource implements DataSource {
   protected String poolPingQuery = "NO PING QUERY SET";
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
+  // 和后台维护有关的配置项
+  protected int poolMinimumIdleConnections;
+  protected int poolMaximumIdleTime;
+  protected int poolMaximumConnectionAge;
+  protected int poolHousekeepingInterval;
+  // 每个连接上缓存的语句数，0表示不缓存
+  protected int poolStatementCacheSize;
+
+  // 后台维护任务，在第一次取连接时或调用startHousekeeping时启动
+  private volatile PoolHousekeeper housekeeper;
 
   // 存储池子中的连接的编码，编码用("" + url + username + password).hashCode()算出来
   // 因此，整个池子中的所有连接的编码必须是一致的，里面的连接是等价的
-  private int expectedConnectionTypeCode;
+  protected volatile int expectedConnectionTypeCode;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -254,6 +266,57 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /**
+   * The minimum number of idle connections the housekeeper keeps in the pool.
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+  }
+
+  /**
+   * If an idle connection has not been used in this many milliseconds, the
+   * housekeeper closes it as long as the minimum idle count is still honored.
+   *
+   * @param milliseconds the idle time after which a connection is evicted, 0 means never
+   */
+  public void setPoolMaximumIdleTime(int milliseconds) {
+    this.poolMaximumIdleTime = milliseconds;
+  }
+
+  /**
+   * The housekeeper closes idle connections older than this many milliseconds.
+   *
+   * @param milliseconds the maximum lifetime of a connection, 0 means unlimited
+   */
+  public void setPoolMaximumConnectionAge(int milliseconds) {
+    this.poolMaximumConnectionAge = milliseconds;
+  }
+
+  /**
+   * The time between two runs of the housekeeper. When it is enabled, idle
+   * connections are validated in the background instead of when they are
+   * checked out.
+   *
+   * @param milliseconds the time between two runs, 0 disables the housekeeper
+   */
+  public void setPoolHousekeepingInterval(int milliseconds) {
+    this.poolHousekeepingInterval = milliseconds;
+    stopHousekeeping();
+  }
+
+  /**
+   * The number of prepared statements cached on each connection. Cached
+   * statements survive across checkouts of the same physical connection.
+   *
+   * @param poolStatementCacheSize the number of cached statements per connection, 0 disables the cache
+   */
+  public void setPoolStatementCacheSize(int poolStatementCacheSize) {
+    this.poolStatementCacheSize = poolStatementCacheSize;
+    forceCloseAll();
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -321,6 +384,60 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public int getPoolMaximumIdleTime() {
+    return poolMaximumIdleTime;
+  }
+
+  public int getPoolMaximumConnectionAge() {
+    return poolMaximumConnectionAge;
+  }
+
+  public int getPoolHousekeepingInterval() {
+    return poolHousekeepingInterval;
+  }
+
+  public int getPoolStatementCacheSize() {
+    return poolStatementCacheSize;
+  }
+
+  /**
+   * 启动后台维护任务。首次维护会立即执行，将空闲连接预先填充到最小空闲连接数
+   */
+  public void startHousekeeping() {
+    if (poolHousekeepingInterval <= 0 || housekeeper != null) {
+      return;
+    }
+    synchronized (this) {
+      if (housekeeper == null) {
+        housekeeper = new PoolHousekeeper(this, poolHousekeepingInterval);
+      }
+    }
+  }
+
+  /**
+   * 停止后台维护任务
+   */
+  public void stopHousekeeping() {
+    synchronized (this) {
+      if (housekeeper != null) {
+        housekeeper.shutdown();
+        housekeeper = null;
+      }
+    }
+  }
+
+  /**
+   * 后台维护任务是否启用。启用后借出和归还连接时不再执行探测查询
+   * @return 是否启用
+   */
+  protected boolean isHousekeepingEnabled() {
+    return poolHousekeepingInterval > 0;
+  }
+
   /**
    * 将活动和空闲的连接全部关闭
    */
@@ -375,7 +492,7 @@ public class PooledDataSource implements DataSource {
    * @param password 密码
    * @return 类型编码
    */
-  private int assembleConnectionTypeCode(String url, String username, String password) {
+  protected int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
 
@@ -402,6 +519,7 @@ public class PooledDataSource implements DataSource {
           state.idleConnections.add(newConn);
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
           newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+          newConn.setStatementCache(conn.getStatementCache());
           // 设置连接为未校验，以便取出时重新校验
           conn.invalidate();
           if (log.isDebugEnabled()) {
@@ -437,6 +555,7 @@ public class PooledDataSource implements DataSource {
    * @throws SQLException
    */
   private PooledConnection popConnection(String username, String password) throws SQLException {
+    startHousekeeping();
     boolean countedWait = false;
     PooledConnection conn = null;
     // 用于统计取出连接花费的时长的时间起点
@@ -456,6 +575,7 @@ public class PooledDataSource implements DataSource {
           if (state.activeConnections.size() < poolMaximumActiveConnections) { // 池中还有空余位置
             // 可以创建新连接，也是通过DriverManager.getConnection拿到的连接
             conn = new PooledConnection(dataSource.getConnection(), this);
+            conn.setStatementCache(newStatementCache());
             if (log.isDebugEnabled()) {
               log.debug("Created connection " + conn.getRealHashCode() + ".");
             }
@@ -484,6 +604,7 @@ public class PooledDataSource implements DataSource {
               conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
               conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
               conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
+              conn.setStatementCache(oldestActiveConnection.getStatementCache());
               oldestActiveConnection.invalidate();
               if (log.isDebugEnabled()) {
                 log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
@@ -562,6 +683,18 @@ public class PooledDataSource implements DataSource {
    * @return True if the connection is still usable
    */
   protected boolean pingConnection(PooledConnection conn) {
+    // 启用后台维护时，探测查询交给后台线程执行，借出和归还时只检查连接是否已关闭
+    return pingConnection(conn, !isHousekeepingEnabled());
+  }
+
+  /**
+   * Method to check to see if a connection is still usable
+   *
+   * @param conn - the connection to check
+   * @param runPingQuery - whether the ping query may be executed
+   * @return True if the connection is still usable
+   */
+  protected boolean pingConnection(PooledConnection conn, boolean runPingQuery) {
     boolean result = true;
 
     try {
@@ -573,7 +706,7 @@ public class PooledDataSource implements DataSource {
       result = false;
     }
 
-    if (result) {
+    if (result && runPingQuery) {
       if (poolPingEnabled) {
         if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
           try {
@@ -609,6 +742,135 @@ public class PooledDataSource implements DataSource {
     return result;
   }
 
+  /**
+   * 执行一次后台维护：校验和回收空闲连接，然后补足最小空闲连接数
+   */
+  void housekeep() {
+    evictIdleConnections();
+    fillIdleConnections();
+  }
+
+  /**
+   * 依次取出每个空闲连接，回收超龄或空闲过久的连接，并校验剩下的连接
+   */
+  protected void evictIdleConnections() {
+    // 期间若连接池被强制关闭，取出的连接就不能再放回去
+    int typeCode = expectedConnectionTypeCode;
+    List<PooledConnection> candidates;
+    synchronized (state) {
+      candidates = new ArrayList<>(state.idleConnections);
+    }
+    for (PooledConnection conn : candidates) {
+      int idleCount;
+      synchronized (state) {
+        // 取出该连接，防止校验期间被借出。若已被借出则跳过
+        idleCount = state.idleConnections.size();
+        if (!state.idleConnections.remove(conn)) {
+          continue;
+        }
+      }
+      if (isEvictable(conn.getCreatedTimestamp(), conn.getLastUsedTimestamp(), idleCount)) {
+        if (log.isDebugEnabled()) {
+          log.debug("Evicting idle connection " + conn.getRealHashCode() + ".");
+        }
+      } else if (pingConnection(conn, true)) {
+        // 校验通过，放回空闲连接池
+        synchronized (state) {
+          if (typeCode == expectedConnectionTypeCode) {
+            state.idleConnections.add(conn);
+            state.notifyAll();
+            continue;
+          }
+        }
+      } else {
+        synchronized (state) {
+          state.badConnectionCount++;
+        }
+      }
+      conn.invalidate();
+      closeQuietly(conn.getRealConnection());
+    }
+  }
+
+  /**
+   * 新建连接，直到空闲连接数达到最小空闲连接数或者连接总数达到上限
+   */
+  protected void fillIdleConnections() {
+    int minimumIdle = Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections);
+    int typeCode = expectedConnectionTypeCode;
+    while (true) {
+      synchronized (state) {
+        if (state.idleConnections.size() >= minimumIdle
+            || state.idleConnections.size() + state.activeConnections.size() >= poolMaximumActiveConnections) {
+          return;
+        }
+      }
+      // 在锁外建立连接，避免阻塞取连接的线程
+      Connection realConn;
+      try {
+        realConn = dataSource.getConnection();
+      } catch (SQLException e) {
+        log.warn("Could not create an idle connection: " + e.getMessage());
+        return;
+      }
+      synchronized (state) {
+        if (typeCode == expectedConnectionTypeCode && state.idleConnections.size() < minimumIdle
+            && state.idleConnections.size() + state.activeConnections.size() < poolMaximumActiveConnections) {
+          PooledConnection conn = new PooledConnection(realConn, this);
+          conn.setStatementCache(newStatementCache());
+          state.idleConnections.add(conn);
+          state.notifyAll();
+          if (log.isDebugEnabled()) {
+            log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+          }
+          continue;
+        }
+      }
+      closeQuietly(realConn);
+      return;
+    }
+  }
+
+  /**
+   * 为一个新建的真正连接创建语句缓存
+   * @return 语句缓存，未启用时返回null
+   */
+  PreparedStatementCache newStatementCache() {
+    return poolStatementCacheSize > 0 ? new PreparedStatementCache(poolStatementCacheSize, getPoolState()) : null;
+  }
+
+  /**
+   * 判断一个空闲连接是否应当被回收
+   * @param createdTimestamp 连接的创建时间
+   * @param lastUsedTimestamp 连接的上次使用时间
+   * @param idleCount 包含该连接在内的空闲连接数
+   * @return 是否应当被回收
+   */
+  protected boolean isEvictable(long createdTimestamp, long lastUsedTimestamp, int idleCount) {
+    long now = System.currentTimeMillis();
+    if (poolMaximumConnectionAge > 0 && now - createdTimestamp > poolMaximumConnectionAge) {
+      // 超龄的连接总是被回收，之后会补充新的连接
+      return true;
+    }
+    return poolMaximumIdleTime > 0 && now - lastUsedTimestamp > poolMaximumIdleTime
+        && idleCount > poolMinimumIdleConnections;
+  }
+
+  /**
+   * 关闭一个真正的连接，忽略所有异常
+   * @param realConn 真正的连接
+   */
+  protected void closeQuietly(Connection realConn) {
+    try {
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
   /**
    * Unwraps a pooled connection to get to the 'real' connection
    *
@@ -627,6 +889,7 @@ public class PooledDataSource implements DataSource {
 
   @Override
   protected void finalize() throws Throwable {
+    stopHousekeeping();
     forceCloseAll();
     super.finalize();
   }
@@ -0,0 +1,253 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * 一个物理连接上空闲的预编译语句的LRU缓存。
+ *
+ * 缓存随真正的连接存在，跨越多次借出和归还。从缓存中取出的语句在关闭前会从缓存中移除，
+ * 因此同一条SQL同时打开多次时会各自使用不同的语句；关闭时语句被重置后放回缓存，而不是真正关闭。
+ */
+class PreparedStatementCache {
+
+  // 缓存中最多保留的空闲语句数
+  private final int size;
+  // 命中、未命中、淘汰的统计信息
+  private final PoolState state;
+  // 空闲的语句，按访问顺序排列
+  private final LinkedHashMap<StatementKey, PreparedStatement> idleStatements;
+
+  PreparedStatementCache(int size, PoolState state) {
+    this.size = size;
+    this.state = state;
+    this.idleStatements = new LinkedHashMap<StatementKey, PreparedStatement>(size, .75F, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<StatementKey, PreparedStatement> eldest) {
+        if (size() > PreparedStatementCache.this.size) {
+          // 淘汰最久未使用的语句
+          evict(eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * 判断一次prepareStatement调用能否使用缓存
+   * @param args 调用参数
+   * @return 能否使用缓存
+   */
+  static boolean isCacheable(Object[] args) {
+    // 只缓存prepareStatement(String)和prepareStatement(String, int, int)
+    return args != null && (args.length == 1 || args.length == 3) && args[0] instanceof String;
+  }
+
+  /**
+   * 从缓存中取出语句，没有时在真正的连接上新建
+   * @param realConnection 真正的连接
+   * @param args prepareStatement的调用参数
+   * @return 语句的代理，关闭该代理会将语句放回缓存
+   * @throws SQLException
+   */
+  PreparedStatement prepareStatement(Connection realConnection, Object[] args) throws SQLException {
+    String sql = (String) args[0];
+    int resultSetType = args.length == 3 ? (Integer) args[1] : ResultSet.TYPE_FORWARD_ONLY;
+    int resultSetConcurrency = args.length == 3 ? (Integer) args[2] : ResultSet.CONCUR_READ_ONLY;
+    StatementKey key = new StatementKey(sql, resultSetType, resultSetConcurrency);
+    PreparedStatement statement;
+    synchronized (this) {
+      statement = idleStatements.remove(key);
+    }
+    if (statement != null) {
+      state.statementCacheHitCount.increment();
+    } else {
+      state.statementCacheMissCount.increment();
+      statement = realConnection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+    return CachedStatement.newInstance(statement, key, this);
+  }
+
+  /**
+   * 将关闭的语句放回缓存
+   * @param key 语句的键
+   * @param statement 真正的语句
+   */
+  private void release(StatementKey key, PreparedStatement statement) {
+    PreparedStatement previous;
+    synchronized (this) {
+      previous = idleStatements.put(key, statement);
+    }
+    if (previous != null && previous != statement) {
+      // 同一条SQL已有空闲的语句，保留最近归还的那个
+      evict(previous);
+    }
+  }
+
+  private void evict(PreparedStatement statement) {
+    state.statementCacheEvictionCount.increment();
+    closeQuietly(statement);
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  /**
+   * 缓存的键：SQL语句 + 结果集类型 + 结果集并发类型
+   */
+  private static final class StatementKey {
+
+    private final String sql;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+    private final int hashCode;
+
+    StatementKey(String sql, int resultSetType, int resultSetConcurrency) {
+      this.sql = sql;
+      this.resultSetType = resultSetType;
+      this.resultSetConcurrency = resultSetConcurrency;
+      this.hashCode = Objects.hash(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof StatementKey)) {
+        return false;
+      }
+      StatementKey other = (StatementKey) obj;
+      return resultSetType == other.resultSetType && resultSetConcurrency == other.resultSetConcurrency
+          && sql.equals(other.sql);
+    }
+  }
+
+  /**
+   * 从缓存中借出的语句的代理处理器
+   */
+  private static final class CachedStatement implements InvocationHandler {
+
+    private static final Class<?>[] IFACES = new Class<?>[] { PreparedStatement.class };
+    // 会修改语句设置的方法，调用过之后归还时需要恢复默认值
+    private static final Set<String> SETTING_METHODS = new HashSet<>(
+        Arrays.asList("setFetchSize", "setMaxRows", "setLargeMaxRows", "setQueryTimeout", "setMaxFieldSize", "setFetchDirection"));
+
+    private final PreparedStatement statement;
+    private final StatementKey key;
+    private final PreparedStatementCache cache;
+    // 代理是否已关闭
+    private boolean closed;
+    // 是否修改过语句设置
+    private boolean settingsChanged;
+    // 是否调用过addBatch
+    private boolean batched;
+
+    private CachedStatement(PreparedStatement statement, StatementKey key, PreparedStatementCache cache) {
+      this.statement = statement;
+      this.key = key;
+      this.cache = cache;
+    }
+
+    static PreparedStatement newInstance(PreparedStatement statement, StatementKey key, PreparedStatementCache cache) {
+      InvocationHandler handler = new CachedStatement(statement, key, cache);
+      return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), IFACES, handler);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String methodName = method.getName();
+      if ("close".equals(methodName)) {
+        if (!closed) {
+          closed = true;
+          recycle();
+        }
+        return null;
+      }
+      if ("isClosed".equals(methodName)) {
+        return closed || statement.isClosed();
+      }
+      if (closed && !Object.class.equals(method.getDeclaringClass())) {
+        throw new SQLException("Error accessing cached PreparedStatement. Statement is closed.");
+      }
+      if (SETTING_METHODS.contains(methodName)) {
+        settingsChanged = true;
+      } else if ("addBatch".equals(methodName)) {
+        batched = true;
+      }
+      try {
+        return method.invoke(statement, args);
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+    }
+
+    /**
+     * 重置语句后放回缓存，重置失败时真正关闭语句
+     */
+    private void recycle() {
+      try {
+        if (statement.isClosed()) {
+          return;
+        }
+        statement.clearParameters();
+        if (batched) {
+          statement.clearBatch();
+        }
+        statement.clearWarnings();
+        if (settingsChanged) {
+          statement.setFetchSize(0);
+          statement.setMaxRows(0);
+          statement.setQueryTimeout(0);
+          statement.setMaxFieldSize(0);
+          statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+        }
+        cache.release(key, statement);
+      } catch (SQLException | RuntimeException e) {
+        closeQuietly(statement);
+      }
+    }
+  }
+
+}
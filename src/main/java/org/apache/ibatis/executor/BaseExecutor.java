@@ -20,6 +20,7 @@ import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOL
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -31,12 +32,14 @@ import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.logging.jdbc.ConnectionLogger;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.CoalesceMode;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.scripting.xmltags.ForEachSqlNode;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.session.ResultHandler;
@@ -69,6 +72,8 @@ public abstract class BaseExecutor implements Executor {
   protected int queryStack;
   //是否已关闭(回滚的时候会被关闭)
   private boolean closed;
+  // 当前事务中是否执行过修改操作
+  private boolean pendingWrites;
 
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
@@ -132,6 +137,7 @@ public abstract class BaseExecutor implements Executor {
     }
     // 清理本地缓存
     clearLocalCache();
+    pendingWrites = true;
     // 返回调用子类进行操作
     return doUpdate(ms, parameter);
   }
@@ -229,6 +235,9 @@ public abstract class BaseExecutor implements Executor {
   @Override
   public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
     BoundSql boundSql = ms.getBoundSql(parameter);
+    if (ForEachSqlNode.getChunkCount(boundSql) > 1) {
+      throw new ExecutorException("Cursor queries do not support a foreach executed in chunks. Statement: " + ms.getId());
+    }
     return doQueryCursor(ms, parameter, rowBounds, boundSql);
   }
 
@@ -258,14 +267,16 @@ public abstract class BaseExecutor implements Executor {
     if (closed) {
       throw new ExecutorException("Executor was closed.");
     }
-    // 创建CacheKey，并将所有查询参数依次更新写入
-    CacheKey cacheKey = new CacheKey();
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    // 创建CacheKey，并将所有查询参数依次更新写入。按更新次数预先分配空间：语句id、分页参数、SQL、各参数、环境id
+    CacheKey cacheKey = new CacheKey(parameterMappings.size() + 5);
     cacheKey.update(ms.getId());
     cacheKey.update(rowBounds.getOffset());
     cacheKey.update(rowBounds.getLimit());
     cacheKey.update(boundSql.getSql());
-    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
+    // 参数对象的元对象，所有参数共用一个
+    MetaObject metaObject = null;
     // mimic DefaultParameterHandler logic
     for (ParameterMapping parameterMapping : parameterMappings) {
       if (parameterMapping.getMode() != ParameterMode.OUT) {
@@ -278,12 +289,18 @@ public abstract class BaseExecutor implements Executor {
         } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
           value = parameterObject;
         } else {
-          MetaObject metaObject = configuration.newMetaObject(parameterObject);
+          if (metaObject == null) {
+            metaObject = configuration.newMetaObject(parameterObject);
+          }
           value = metaObject.getValue(propertyName);
         }
         cacheKey.update(value);
       }
     }
+    if (boundSql.hasAdditionalParameter(ForEachSqlNode.CHUNKED_COLLECTION_KEY)) {
+      // 分块执行的语句，第一块的参数不能代表全部参数
+      cacheKey.update(boundSql.getAdditionalParameter(ForEachSqlNode.CHUNKED_COLLECTION_KEY));
+    }
     if (configuration.getEnvironment() != null) {
       // issue #176
       cacheKey.update(configuration.getEnvironment().getId());
@@ -306,6 +323,7 @@ public abstract class BaseExecutor implements Executor {
     if (required) {
       transaction.commit();
     }
+    pendingWrites = false;
   }
 
   @Override
@@ -318,6 +336,7 @@ public abstract class BaseExecutor implements Executor {
         if (required) {
           transaction.rollback();
         }
+        pendingWrites = false;
       }
     }
   }
@@ -397,8 +416,14 @@ public abstract class BaseExecutor implements Executor {
     // 向缓存中增加占位符，表示正在查询
     localCache.putObject(key, EXECUTION_PLACEHOLDER);
     try {
-      //执行doQuery方法
-      list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+      if (isCoalescible(ms, resultHandler)) {
+        // 与其他会话中并发的相同查询合并执行
+        list = configuration.getQueryCoalescer().query(key, ms.getCoalesceMode(), configuration.getCoalesceWaitTimeout(),
+            () -> doQueryChunks(ms, parameter, rowBounds, resultHandler, boundSql));
+      } else {
+        //执行doQuery方法
+        list = doQueryChunks(ms, parameter, rowBounds, resultHandler, boundSql);
+      }
     } finally {
       // 删除占位符
       localCache.removeObject(key);
@@ -414,6 +439,58 @@ public abstract class BaseExecutor implements Executor {
     return list;
   }
 
+  /**
+   * 执行查询。foreach分块的语句逐块执行，依次拼接各块的结果。
+   * 只有逐行返回的查询才能这样拼接，含排序、去重、分组、聚合或嵌套结果映射的语句拒绝分块执行
+   * @param ms 映射语句
+   * @param parameter 参数对象
+   * @param rowBounds 翻页限制条件
+   * @param resultHandler 结果处理器
+   * @param boundSql 第一块的查询语句
+   * @param <E> 结果类型
+   * @return 查询结果
+   * @throws SQLException
+   */
+  private <E> List<E> doQueryChunks(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql) throws SQLException {
+    int chunkCount = ForEachSqlNode.getChunkCount(boundSql);
+    if (chunkCount <= 1) {
+      return doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+    }
+    if (rowBounds.getOffset() > RowBounds.NO_ROW_OFFSET || rowBounds.getLimit() < RowBounds.NO_ROW_LIMIT) {
+      throw new ExecutorException("RowBounds are not supported when a foreach is executed in chunks. Statement: " + ms.getId());
+    }
+    if (ms.hasNestedResultMaps()) {
+      // 父对象的行分散在不同的块中时，每块各自生成一个只含部分子对象的父对象
+      throw new ExecutorException("A foreach can not be executed in chunks by statements with nested result maps. Statement: " + ms.getId());
+    }
+    if (!ForEachSqlNode.isConcatenable(boundSql)) {
+      throw new ExecutorException("A foreach can only be executed in chunks by statements returning plain rows"
+          + " (no ORDER BY, GROUP BY, DISTINCT, UNION, HAVING or aggregates). Statement: " + ms.getId());
+    }
+    List<E> list = new ArrayList<>(this.<E>doQuery(ms, parameter, rowBounds, resultHandler, boundSql));
+    for (int chunk = 1; chunk < chunkCount; chunk++) {
+      list.addAll(this.<E>doQuery(ms, parameter, rowBounds, resultHandler, ms.getBoundSql(parameter, chunk)));
+    }
+    return list;
+  }
+
+  /**
+   * 判断查询能否与其他会话中的相同查询合并执行。
+   * 使用ResultHandler的查询不返回结果列表，存储过程需要回填输出参数，二者都不能合并。
+   * 本会话有未提交的修改时，其他会话的查询结果看不到这些修改，因此也不合并。
+   * 嵌套查询和延迟加载绑定在执行查询的会话上，共享给其他会话的结果无法使用，因此含有嵌套查询的语句也不合并
+   * @param ms 映射语句
+   * @param resultHandler 结果处理器
+   * @return 能否合并执行
+   */
+  private boolean isCoalescible(MappedStatement ms, ResultHandler resultHandler) {
+    return ms.getCoalesceMode() != CoalesceMode.NONE
+        && resultHandler == null
+        && ms.getStatementType() != StatementType.CALLABLE
+        && !pendingWrites
+        && !ms.hasNestedQueries();
+  }
+
   /**
    * 获取一个Connection对象
    * @param statementLog 日志对象
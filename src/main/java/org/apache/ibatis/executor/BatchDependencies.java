@@ -0,0 +1,168 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * 判断批处理中的语句能否越过之前发出的语句提前执行。
+ *
+ * 只识别单表的INSERT、UPDATE、DELETE语句，表之间的依赖关系来自数据库元数据中的外键。
+ * 无法识别的语句、含有子查询或连接的语句，以及元数据查询失败的表，一律视为与其他语句存在依赖。
+ * 外键信息由同一配置下的所有执行器共享，按环境分别缓存，每张表只查询一次元数据。
+ */
+public class BatchDependencies {
+
+  private static final Pattern TARGET_TABLE = Pattern.compile(
+      "^\\s*(insert\\s+into|update|delete\\s+from)\\s+([\\w$.\"`\\[\\]]+)", Pattern.CASE_INSENSITIVE);
+  private static final Pattern READS_OTHER_TABLES = Pattern.compile("\\b(select|join)\\b", Pattern.CASE_INSENSITIVE);
+
+  // 无法确定外键的表在缓存中对应的值，ConcurrentHashMap不能保存null
+  private static final Set<String> UNKNOWN = Collections.unmodifiableSet(new HashSet<>());
+
+  // 环境编号到表（大写的完整名称）与它通过外键引用的表名（大写）的映射
+  private final ConcurrentMap<String, ConcurrentMap<String, Set<String>>> referencedTables = new ConcurrentHashMap<>();
+
+  /**
+   * 解析语句写入的表
+   * @param sql SQL语句
+   * @return 语句写入的表，无法确定时返回null
+   */
+  static Target parse(String sql) {
+    Matcher matcher = TARGET_TABLE.matcher(sql);
+    if (!matcher.find() || READS_OTHER_TABLES.matcher(sql).find()) {
+      return null;
+    }
+    String keyword = matcher.group(1).toLowerCase(Locale.ENGLISH);
+    SqlCommandType type = keyword.startsWith("insert") ? SqlCommandType.INSERT
+        : keyword.startsWith("update") ? SqlCommandType.UPDATE : SqlCommandType.DELETE;
+    String name = matcher.group(2);
+    boolean quoted = name.indexOf('"') >= 0 || name.indexOf('`') >= 0 || name.indexOf('[') >= 0;
+    name = name.replaceAll("[\"`\\[\\]]", "");
+    int dot = name.lastIndexOf('.');
+    String schema = dot < 0 ? null : name.substring(0, dot);
+    String table = dot < 0 ? name : name.substring(dot + 1);
+    if (table.isEmpty()) {
+      return null;
+    }
+    return new Target(type, schema, table, quoted);
+  }
+
+  /**
+   * 判断一条语句能否越过另一条先发出的语句提前执行
+   * @param environmentId 连接所属的环境编号，不同环境的外键分别缓存
+   * @param connection 数据库连接，用于查询外键
+   * @param moving 要提前执行的语句写入的表
+   * @param passed 被越过的语句写入的表
+   * @return 能否提前执行
+   */
+  boolean canMoveAhead(String environmentId, Connection connection, Target moving, Target passed) {
+    if (moving == null || passed == null || moving.name.equals(passed.name)) {
+      return false;
+    }
+    if (moving.type != SqlCommandType.DELETE) {
+      // 插入或修改的行可能引用被越过的语句插入或修改的行
+      Set<String> references = getReferencedTables(environmentId, connection, moving);
+      if (references == null || references.contains(passed.name)) {
+        return false;
+      }
+    }
+    if (moving.type != SqlCommandType.INSERT) {
+      // 删除或修改的行可能仍被被越过的语句删除或修改的行引用
+      Set<String> references = getReferencedTables(environmentId, connection, passed);
+      if (references == null || references.contains(moving.name)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Set<String> getReferencedTables(String environmentId, Connection connection, Target target) {
+    ConcurrentMap<String, Set<String>> tables = referencedTables.computeIfAbsent(environmentId, k -> new ConcurrentHashMap<>());
+    String key = target.schema == null ? target.name : target.schema.toUpperCase(Locale.ENGLISH) + "." + target.name;
+    Set<String> cached = tables.get(key);
+    if (cached != null) {
+      return cached == UNKNOWN ? null : cached;
+    }
+    // 在锁外查询元数据，并发的首次查询可能重复执行，结果相同
+    Set<String> references;
+    try {
+      DatabaseMetaData metaData = connection.getMetaData();
+      String schema = target.schema;
+      String table = target.table;
+      if (!target.quoted && metaData.storesUpperCaseIdentifiers()) {
+        schema = schema == null ? null : schema.toUpperCase(Locale.ENGLISH);
+        table = table.toUpperCase(Locale.ENGLISH);
+      } else if (!target.quoted && metaData.storesLowerCaseIdentifiers()) {
+        schema = schema == null ? null : schema.toLowerCase(Locale.ENGLISH);
+        table = table.toLowerCase(Locale.ENGLISH);
+      }
+      references = new HashSet<>();
+      boolean exists;
+      try (ResultSet rs = metaData.getTables(null, schema, table, null)) {
+        exists = rs.next();
+      }
+      try (ResultSet rs = metaData.getImportedKeys(null, schema, table)) {
+        while (rs.next()) {
+          references.add(rs.getString("PKTABLE_NAME").toUpperCase(Locale.ENGLISH));
+        }
+      }
+      if (!exists) {
+        // 找不到表时无法判断外键，视为依赖所有的表
+        references = null;
+      }
+    } catch (SQLException e) {
+      references = null;
+    }
+    tables.putIfAbsent(key, references == null ? UNKNOWN : Collections.unmodifiableSet(references));
+    return references;
+  }
+
+  /**
+   * 语句写入的表
+   */
+  static final class Target {
+    private final SqlCommandType type;
+    private final String schema;
+    private final String table;
+    // 大写的表名，用于比较
+    private final String name;
+    // 表名是否带有引号
+    private final boolean quoted;
+
+    Target(SqlCommandType type, String schema, String table, boolean quoted) {
+      this.type = type;
+      this.schema = schema;
+      this.table = table;
+      this.name = table.toUpperCase(Locale.ENGLISH);
+      this.quoted = quoted;
+    }
+  }
+
+}
@@ -15,21 +15,32 @@
  */
 package org.apache.ibatis.executor;
 
+import java.lang.reflect.Proxy;
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.BatchResultRetention;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
@@ -37,18 +48,59 @@ import org.apache.ibatis.transaction.Transaction;
 
 /**
  * @author Jeff Butler
+ *
+ * 默认只有连续执行的相同语句才会进入同一个批次。启用batchReordering后，每条不同的SQL只打开一个语句，
+ * 交错执行的语句在不越过可能依赖的语句的前提下并入之前的批次；必须越过时，先按顺序执行排在前面的批次。
+ * 设置maxBatchSize后，批次达到该大小时它以及排在它之前的批次会立即执行，执行结果保留到刷新时一并返回。
+ * 设置batchFlushSize或batchFlushBytes后，等待执行的语句数或参数值估计字节数达到阈值时所有批次自动执行；
+ * 配合batchResultRetention释放已执行批次的参数对象，批量导入数据时占用的内存不随数据量增长。
+ * 设置multiRowInsertWidth后，单行的INSERT ... VALUES (...)语句在执行时被改写为一次插入多行的语句，
+ * 每行的参数值在加入批次时记录。改写后的语句不经过StatementHandler的插件，语句处理器被插件拦截时不改写。
  */
 public class BatchExecutor extends BaseExecutor {
 
   public static final int BATCH_UPDATE_RETURN_VALUE = Integer.MIN_VALUE + 1002;
 
-  private final List<Statement> statementList = new ArrayList<>();
-  private final List<BatchResult> batchResultList = new ArrayList<>();
-  private String currentSql;
-  private MappedStatement currentStatement;
+  // 等待执行的批次，按照执行顺序排列
+  private final List<Batch> pendingBatches = new ArrayList<>();
+  // 所有打开的批次，刷新时关闭其中的语句
+  private final List<Batch> openBatches = new ArrayList<>();
+  // 刷新之前已经执行的批次结果，按照batchResultRetention保留
+  private final List<BatchResult> executedResults = new ArrayList<>();
+  // 按映射语句和SQL索引的批次，只在分组模式下使用
+  private final Map<MappedStatement, Map<String, Batch>> batchIndex = new HashMap<>();
+  // 是否将交错执行的语句按SQL分组
+  private final boolean reordering;
+  // 单个批次的最大语句数
+  private final int maxBatchSize;
+  // 改写为多行插入时每条语句包含的行数
+  private final int multiRowInsertWidth;
+  // 自动执行所有批次的语句数阈值
+  private final int batchFlushSize;
+  // 自动执行所有批次的字节数阈值
+  private final long batchFlushBytes;
+  // 批次执行后保留的结果
+  private final BatchResultRetention retention;
+  // 批次执行后的回调
+  private final BatchFlushListener flushListener;
+  // 等待执行的语句数
+  private int pendingStatements;
+  // 等待执行的参数值估计字节数
+  private long pendingBytes;
+  // 刷新之前已经执行的批次数
+  private int executedBatchCount;
+  // 最近一次使用的批次
+  private Batch currentBatch;
 
   public BatchExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
+    this.reordering = configuration.isBatchReordering();
+    this.maxBatchSize = configuration.getMaxBatchSize();
+    this.multiRowInsertWidth = configuration.getMultiRowInsertWidth();
+    this.batchFlushSize = configuration.getBatchFlushSize();
+    this.batchFlushBytes = configuration.getBatchFlushBytes();
+    this.retention = configuration.getBatchResultRetention();
+    this.flushListener = configuration.getBatchFlushListener();
   }
 
   @Override
@@ -58,26 +110,119 @@ public class BatchExecutor extends BaseExecutor {
     final BoundSql boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
     final Statement stmt;
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
+    Batch batch = findBatch(ms, sql);
+    if (batch != null) {
+      stmt = batch.statement;
       applyTransactionTimeout(stmt);
-      handler.parameterize(stmt);//fix Issues 322
-      BatchResult batchResult = batchResultList.get(last);
-      batchResult.addParameterObject(parameterObject);
     } else {
       Connection connection = getConnection(ms.getStatementLog());
       stmt = handler.prepare(connection, transaction.getTimeout());
-      handler.parameterize(stmt);    //fix Issues 322
-      currentSql = sql;
-      currentStatement = ms;
-      statementList.add(stmt);
-      batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      batch = new Batch(ms, sql, stmt, reordering ? BatchDependencies.parse(sql) : null,
+          multiRowInsertWidth > 1 ? findMultiRowInsert(ms, handler, boundSql) : null);
+      openBatches.add(batch);
+      if (reordering) {
+        batchIndex.computeIfAbsent(ms, k -> new HashMap<>()).put(sql, batch);
+      }
+    }
+    // 改写的插入语句在执行批次时才设置参数，此时先记录下参数值
+    CapturedParameters row = batch.insert != null
+        ? CapturedParameters.capture(handler, (PreparedStatement) stmt, batch.insert.getParameterCount()) : null;
+    if (row == null) {
+      handler.parameterize(stmt);//fix Issues 322
+    }
+    if (batch.result == null) {
+      batch.result = new BatchResult(ms, sql);
+      pendingBatches.add(batch);
+    }
+    batch.result.addParameterObject(parameterObject);
+    currentBatch = batch;
+    if (row != null) {
+      batch.rows.add(row);
+    } else {
+      handler.batch(stmt);
+    }
+    pendingStatements++;
+    if (batchFlushBytes > 0) {
+      long size = estimateParameterSize(handler, sql);
+      batch.pendingBytes += size;
+      pendingBytes += size;
+    }
+    if (maxBatchSize > 0 && batch.result.getStatementCount() >= maxBatchSize) {
+      executeBatches(pendingBatches.indexOf(batch) + 1);
+    }
+    if ((batchFlushSize > 0 && pendingStatements >= batchFlushSize) || (batchFlushBytes > 0 && pendingBytes >= batchFlushBytes)) {
+      executeBatches(pendingBatches.size());
     }
-    handler.batch(stmt);
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  /**
+   * 估计刚加入批次的语句的参数值字节数。参数处理器被插件替换时以SQL语句的长度代替
+   * @param handler 语句处理器
+   * @param sql SQL语句
+   * @return 估计字节数
+   */
+  private long estimateParameterSize(StatementHandler handler, String sql) {
+    ParameterHandler parameterHandler = handler.getParameterHandler();
+    if (parameterHandler instanceof DefaultParameterHandler) {
+      return ((DefaultParameterHandler) parameterHandler).getEstimatedParameterSize();
+    }
+    return sql.length();
+  }
+
+  /**
+   * 判断语句能否改写为多行插入。
+   * 改写后的语句不经过StatementHandler的parameterize和batch，因此语句处理器被插件拦截时不改写
+   * @param ms 映射语句
+   * @param handler 语句处理器
+   * @param boundSql 第一条语句的BoundSql
+   * @return 改写方式，不能改写时返回null
+   */
+  private MultiRowInsert findMultiRowInsert(MappedStatement ms, StatementHandler handler, BoundSql boundSql) {
+    Class<?> keyGeneratorType = ms.getKeyGenerator().getClass();
+    if (ms.getStatementType() != StatementType.PREPARED
+        || (keyGeneratorType != Jdbc3KeyGenerator.class && keyGeneratorType != NoKeyGenerator.class)
+        || Proxy.isProxyClass(handler.getClass())) {
+      return null;
+    }
+    MultiRowInsert insert = MultiRowInsert.parse(boundSql.getSql(), multiRowInsertWidth);
+    return insert != null && insert.getParameterCount() == boundSql.getParameterMappings().size() ? insert : null;
+  }
+
+  /**
+   * 查找可以加入的批次。分组模式下，如果加入已有的批次需要越过可能依赖的语句，先执行到这些语句为止的批次
+   * @param ms 映射语句
+   * @param sql SQL语句
+   * @return 可以加入的批次，需要新建批次时返回null
+   * @throws SQLException
+   */
+  private Batch findBatch(MappedStatement ms, String sql) throws SQLException {
+    if (!reordering) {
+      Batch batch = currentBatch;
+      return batch != null && sql.equals(batch.sql) && ms.equals(batch.mappedStatement) ? batch : null;
+    }
+    Map<String, Batch> batches = batchIndex.get(ms);
+    Batch batch = batches == null ? null : batches.get(sql);
+    if (batch == null || batch.result == null) {
+      return batch;
+    }
+    int position = pendingBatches.indexOf(batch);
+    if (position == pendingBatches.size() - 1) {
+      return batch;
+    }
+    BatchDependencies dependencies = configuration.getBatchDependencies();
+    Environment environment = configuration.getEnvironment();
+    String environmentId = environment == null ? "" : environment.getId();
+    Connection connection = getConnection(ms.getStatementLog());
+    for (int i = pendingBatches.size() - 1; i > position; i--) {
+      if (!dependencies.canMoveAhead(environmentId, connection, batch.target, pendingBatches.get(i).target)) {
+        executeBatches(i + 1);
+        break;
+      }
+    }
+    return batch;
+  }
+
   @Override
   public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException {
@@ -104,59 +249,218 @@ public class BatchExecutor extends BaseExecutor {
     Statement stmt = handler.prepare(connection, transaction.getTimeout());
     stmt.closeOnCompletion();
     handler.parameterize(stmt);
+    if (configuration.isStreamingCursorFetch()) {
+      configuration.getFetchSizeAdvisor().applyStreamingFetchSize(ms, stmt);
+    }
     return handler.queryCursor(stmt);
   }
 
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
     try {
-      List<BatchResult> results = new ArrayList<>();
       if (isRollback) {
         return Collections.emptyList();
       }
-      for (int i = 0, n = statementList.size(); i < n; i++) {
-        Statement stmt = statementList.get(i);
-        applyTransactionTimeout(stmt);
-        BatchResult batchResult = batchResultList.get(i);
-        try {
+      executeBatches(pendingBatches.size());
+      return new ArrayList<>(executedResults);
+    } finally {
+      for (Batch batch : openBatches) {
+        closeStatement(batch.statement);
+        closeStatement(batch.multiRowStatement);
+      }
+      currentBatch = null;
+      pendingStatements = 0;
+      pendingBytes = 0;
+      executedBatchCount = 0;
+      openBatches.clear();
+      pendingBatches.clear();
+      executedResults.clear();
+      batchIndex.clear();
+    }
+  }
+
+  /**
+   * 按顺序执行排在最前面的若干个批次，批次中的语句保持打开以便继续加入
+   * @param count 执行的批次数
+   * @throws SQLException
+   */
+  private void executeBatches(int count) throws SQLException {
+    for (int i = 0; i < count; i++) {
+      Batch batch = pendingBatches.remove(0);
+      Statement stmt = batch.statement;
+      applyTransactionTimeout(stmt);
+      BatchResult batchResult = batch.result;
+      batch.result = null;
+      pendingStatements -= batchResult.getStatementCount();
+      pendingBytes -= batch.pendingBytes;
+      batch.pendingBytes = 0;
+      try {
+        if (batch.insert != null) {
+          batchResult.setUpdateCounts(executeMultiRowInsert(batch, batchResult.getParameterObjects()));
+        } else {
           batchResult.setUpdateCounts(stmt.executeBatch());
-          MappedStatement ms = batchResult.getMappedStatement();
-          List<Object> parameterObjects = batchResult.getParameterObjects();
-          KeyGenerator keyGenerator = ms.getKeyGenerator();
-          if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
-            Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
-            jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
-          } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
-            for (Object parameter : parameterObjects) {
-              keyGenerator.processAfter(this, ms, stmt, parameter);
-            }
-          }
-          // Close statement to close cursor #1109
-          closeStatement(stmt);
-        } catch (BatchUpdateException e) {
-          StringBuilder message = new StringBuilder();
-          message.append(batchResult.getMappedStatement().getId())
-              .append(" (batch index #")
-              .append(i + 1)
-              .append(")")
-              .append(" failed.");
-          if (i > 0) {
-            message.append(" ")
-                .append(i)
-                .append(" prior sub executor(s) completed successfully, but will be rolled back.");
+          processGeneratedKeys(batchResult.getMappedStatement(), stmt, batchResult.getParameterObjects());
+        }
+      } catch (BatchUpdateException e) {
+        int index = executedBatchCount;
+        StringBuilder message = new StringBuilder();
+        message.append(batchResult.getMappedStatement().getId())
+            .append(" (batch index #")
+            .append(index + 1)
+            .append(")")
+            .append(" failed.");
+        if (index > 0) {
+          message.append(" ")
+              .append(index)
+              .append(" prior sub executor(s) completed successfully, but will be rolled back.");
+        }
+        throw new BatchExecutorException(message.toString(), e, new ArrayList<>(executedResults), batchResult);
+      }
+      executedBatchCount++;
+      if (flushListener != null) {
+        flushListener.onFlush(batchResult);
+      }
+      retain(batchResult);
+    }
+    if (!reordering) {
+      closeExecutedBatches();
+    }
+  }
+
+  /**
+   * 关闭已经执行、不会再加入语句的批次。
+   * 不分组时只有当前批次还能继续加入语句，SQL切换后之前的批次执行完就不再使用，
+   * 立即关闭它们的语句，交替执行多种语句时打开的语句数不随数据量增长
+   */
+  private void closeExecutedBatches() {
+    for (Iterator<Batch> iterator = openBatches.iterator(); iterator.hasNext();) {
+      Batch batch = iterator.next();
+      if (batch != currentBatch && batch.result == null) {
+        closeStatement(batch.statement);
+        closeStatement(batch.multiRowStatement);
+        iterator.remove();
+      }
+    }
+  }
+
+  private void processGeneratedKeys(MappedStatement ms, Statement stmt, List<Object> parameterObjects) {
+    KeyGenerator keyGenerator = ms.getKeyGenerator();
+    if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+      Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
+      jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
+    } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
+      for (Object parameter : parameterObjects) {
+        keyGenerator.processAfter(this, ms, stmt, parameter);
+      }
+    }
+  }
+
+  /**
+   * 执行改写为多行插入的批次。凑满一条改写语句行数的数据通过多行插入语句批量执行，剩余的数据仍然逐行批量执行
+   * @param batch 批次
+   * @param parameterObjects 每一行的参数对象
+   * @return 每一行的更新行数
+   * @throws SQLException
+   */
+  private int[] executeMultiRowInsert(Batch batch, List<Object> parameterObjects) throws SQLException {
+    final MappedStatement ms = batch.mappedStatement;
+    final List<CapturedParameters> rows = batch.rows;
+    final int width = batch.insert.getWidth();
+    final int parameterCount = batch.insert.getParameterCount();
+    final int multiRows = rows.size() / width * width;
+    final int[] updateCounts = new int[rows.size()];
+    try {
+      if (multiRows > 0) {
+        PreparedStatement stmt = getMultiRowStatement(batch, parameterObjects.get(0));
+        applyTransactionTimeout(stmt);
+        for (int i = 0; i < multiRows; i++) {
+          rows.get(i).bind(stmt, i % width * parameterCount);
+          if (i % width == width - 1) {
+            stmt.addBatch();
           }
-          throw new BatchExecutorException(message.toString(), e, results, batchResult);
         }
-        results.add(batchResult);
+        int[] counts = stmt.executeBatch();
+        for (int i = 0; i < counts.length; i++) {
+          // 多行插入只返回总行数，行数与语句包含的行数一致时才能确定每一行都插入成功
+          int rowCount = counts[i] == width ? 1 : counts[i] == Statement.EXECUTE_FAILED ? Statement.EXECUTE_FAILED : Statement.SUCCESS_NO_INFO;
+          Arrays.fill(updateCounts, i * width, (i + 1) * width, rowCount);
+        }
+        processGeneratedKeys(ms, stmt, parameterObjects.subList(0, multiRows));
+      }
+      if (multiRows < rows.size()) {
+        PreparedStatement stmt = (PreparedStatement) batch.statement;
+        for (int i = multiRows; i < rows.size(); i++) {
+          rows.get(i).bind(stmt, 0);
+          stmt.addBatch();
+        }
+        int[] counts = stmt.executeBatch();
+        System.arraycopy(counts, 0, updateCounts, multiRows, counts.length);
+        processGeneratedKeys(ms, stmt, parameterObjects.subList(multiRows, rows.size()));
       }
-      return results;
     } finally {
-      for (Statement stmt : statementList) {
-        closeStatement(stmt);
+      rows.clear();
+    }
+    return updateCounts;
+  }
+
+  private PreparedStatement getMultiRowStatement(Batch batch, Object parameterObject) throws SQLException {
+    if (batch.multiRowStatement == null) {
+      MappedStatement ms = batch.mappedStatement;
+      BoundSql boundSql = new BoundSql(configuration, batch.insert.getSql(), Collections.emptyList(), parameterObject);
+      StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, boundSql);
+      batch.multiRowStatement = (PreparedStatement) handler.prepare(getConnection(ms.getStatementLog()), transaction.getTimeout());
+    }
+    return batch.multiRowStatement;
+  }
+
+  /**
+   * 按照batchResultRetention保留批次的执行结果
+   * @param batchResult 批次的执行结果
+   */
+  private void retain(BatchResult batchResult) {
+    if (retention == BatchResultRetention.UPDATE_COUNTS) {
+      batchResult.releaseParameterObjects();
+    } else if (retention == BatchResultRetention.SUMMARY) {
+      for (BatchResult summary : executedResults) {
+        if (summary.getMappedStatement() == batchResult.getMappedStatement() && summary.getSql().equals(batchResult.getSql())) {
+          summary.accumulate(batchResult);
+          return;
+        }
       }
-      currentSql = null;
-      statementList.clear();
-      batchResultList.clear();
+      BatchResult summary = new BatchResult(batchResult.getMappedStatement(), batchResult.getSql());
+      summary.accumulate(batchResult);
+      batchResult = summary;
+    }
+    executedResults.add(batchResult);
+  }
+
+  /**
+   * 一个打开的批处理语句
+   */
+  private static final class Batch {
+    private final MappedStatement mappedStatement;
+    private final String sql;
+    private final Statement statement;
+    // 语句写入的表，用于判断能否提前执行
+    private final BatchDependencies.Target target;
+    // 多行插入的改写方式，为null表示不改写
+    private final MultiRowInsert insert;
+    // 改写时等待执行的各行在加入批次时的参数值
+    private final List<CapturedParameters> rows;
+    // 等待执行的语句参数，为null表示该批次当前不在等待执行的队列中
+    private BatchResult result;
+    // 等待执行的参数值估计字节数
+    private long pendingBytes;
+    // 改写后的多行插入语句，首次执行时创建
+    private PreparedStatement multiRowStatement;
+
+    Batch(MappedStatement mappedStatement, String sql, Statement statement, BatchDependencies.Target target, MultiRowInsert insert) {
+      this.mappedStatement = mappedStatement;
+      this.sql = sql;
+      this.statement = statement;
+      this.target = target;
+      this.insert = insert;
+      this.rows = insert == null ? null : new ArrayList<>();
     }
   }
 
@@ -0,0 +1,32 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+/**
+ * 批量执行器每执行完一个批次后调用的回调。
+ *
+ * 回调时批次已经执行并完成了主键回写，参数对象尚未按照BatchResultRetention的要求释放。
+ */
+@FunctionalInterface
+public interface BatchFlushListener {
+
+  /**
+   * 一个批次执行完成
+   * @param batchResult 批次的执行结果
+   */
+  void onFlush(BatchResult batchResult);
+
+}
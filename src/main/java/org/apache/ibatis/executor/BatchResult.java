@@ -16,6 +16,7 @@
 package org.apache.ibatis.executor;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.ibatis.mapping.MappedStatement;
@@ -27,9 +28,13 @@ public class BatchResult {
 
   private final MappedStatement mappedStatement;
   private final String sql;
-  private final List<Object> parameterObjects;
+  private List<Object> parameterObjects;
 
   private int[] updateCounts;
+  // 批次中的语句数，参数对象被释放后仍然有效
+  private int statementCount;
+  // 更新行数之和，不包括驱动无法给出行数的语句
+  private long totalUpdateCount;
 
   public BatchResult(MappedStatement mappedStatement, String sql) {
     super();
@@ -66,10 +71,43 @@ public class BatchResult {
 
   public void setUpdateCounts(int[] updateCounts) {
     this.updateCounts = updateCounts;
+    this.totalUpdateCount = 0;
+    for (int updateCount : updateCounts) {
+      if (updateCount > 0) {
+        totalUpdateCount += updateCount;
+      }
+    }
   }
 
   public void addParameterObject(Object parameterObject) {
     this.parameterObjects.add(parameterObject);
+    this.statementCount++;
+  }
+
+  public int getStatementCount() {
+    return statementCount;
+  }
+
+  public long getTotalUpdateCount() {
+    return totalUpdateCount;
+  }
+
+  /**
+   * 释放参数对象，只保留更新行数和汇总数据
+   */
+  void releaseParameterObjects() {
+    this.parameterObjects = Collections.emptyList();
+  }
+
+  /**
+   * 将另一个批次的结果累加到本结果的汇总数据中，本结果不保留参数对象和每条语句的更新行数
+   * @param other 另一个批次的结果
+   */
+  void accumulate(BatchResult other) {
+    this.parameterObjects = Collections.emptyList();
+    this.updateCounts = new int[0];
+    this.statementCount += other.statementCount;
+    this.totalUpdateCount += other.totalUpdateCount;
   }
 
 }
@@ -0,0 +1,118 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * 记录语句处理器设置到PreparedStatement上的参数，之后按偏移量重新设置到另一条语句上。
+ *
+ * 改写为多行插入的语句在执行批次时才设置参数，加入批次时先记录下当时的参数值，参数对象之后被修改或复用不会影响已加入的行。
+ * 设置参数以外的调用（例如类型处理器通过getConnection创建数组）交给原来的语句处理。
+ */
+final class CapturedParameters implements InvocationHandler {
+
+  // 设置参数以外的调用交给该语句
+  private final PreparedStatement statement;
+  // 每个参数最后一次调用的设置方法，没有设置的位置为null
+  private final Method[] setters;
+  // 每个参数设置方法的调用参数，第一个元素是参数位置
+  private final Object[][] arguments;
+
+  private CapturedParameters(PreparedStatement statement, int parameterCount) {
+    this.statement = statement;
+    this.setters = new Method[parameterCount];
+    this.arguments = new Object[parameterCount][];
+  }
+
+  /**
+   * 通过语句处理器设置参数，记录设置的值
+   * @param handler 语句处理器
+   * @param statement 语句处理器创建的语句，设置参数以外的调用交给它处理
+   * @param parameterCount 参数个数
+   * @return 记录的参数
+   * @throws SQLException
+   */
+  static CapturedParameters capture(StatementHandler handler, PreparedStatement statement, int parameterCount) throws SQLException {
+    CapturedParameters captured = new CapturedParameters(statement, parameterCount);
+    PreparedStatement capturingStatement = (PreparedStatement) Proxy.newProxyInstance(
+        PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, captured);
+    handler.parameterize(capturingStatement);
+    return captured;
+  }
+
+  /**
+   * 将记录的参数设置到语句上，参数位置整体后移
+   * @param ps 语句
+   * @param offset 第一个参数之前已有的参数数目
+   * @throws SQLException
+   */
+  void bind(PreparedStatement ps, int offset) throws SQLException {
+    for (int i = 0; i < setters.length; i++) {
+      if (setters[i] == null) {
+        continue;
+      }
+      Object[] args = arguments[i].clone();
+      args[0] = offset + i + 1;
+      try {
+        setters[i].invoke(ps, args);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getTargetException();
+        if (cause instanceof SQLException) {
+          throw (SQLException) cause;
+        }
+        throw new ExecutorException("Could not set parameter #" + (i + 1) + " on the multi-row insert. Cause: " + cause, cause);
+      } catch (IllegalAccessException e) {
+        throw new ExecutorException("Could not set parameter #" + (i + 1) + " on the multi-row insert. Cause: " + e, e);
+      }
+    }
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+      int index = (Integer) args[0] - 1;
+      if (index >= 0 && index < setters.length) {
+        setters[index] = method;
+        arguments[index] = args;
+        return null;
+      }
+    }
+    if (method.getDeclaringClass() == Object.class) {
+      if ("equals".equals(name)) {
+        return proxy == args[0];
+      } else if ("hashCode".equals(name)) {
+        return System.identityHashCode(proxy);
+      }
+      return "multi-row insert parameter capture";
+    }
+    try {
+      return method.invoke(statement, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+}
@@ -0,0 +1,152 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 可以改写为一次插入多行数据的单行INSERT ... VALUES (...)语句。
+ *
+ * 只有VALUES之后恰好是一组括号且其后没有其他子句、所有的占位符都在这组括号中的语句才能改写。
+ * 改写后的语句包含的占位符不超过{@link #MAX_PARAMETERS}个，行数按此减少，以免超出数据库对单条语句参数个数的限制。
+ */
+final class MultiRowInsert {
+
+  // 改写后单条语句最多包含的占位符数目，低于常见数据库的限制（SQL Server为2100，PostgreSQL为65535）
+  static final int MAX_PARAMETERS = 2000;
+
+  private static final Pattern INSERT_VALUES = Pattern.compile("^\\s*insert\\s+into\\s.*?\\svalues\\s*\\(",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  // VALUES之前（包括VALUES）的部分
+  private final String prefix;
+  // 一行数据的括号部分
+  private final String row;
+  // 一行数据中的占位符数目
+  private final int parameterCount;
+  // 改写后每条语句包含的行数
+  private final int width;
+
+  private MultiRowInsert(String prefix, String row, int parameterCount, int width) {
+    this.prefix = prefix;
+    this.row = row;
+    this.parameterCount = parameterCount;
+    this.width = width;
+  }
+
+  /**
+   * 解析单行插入语句
+   * @param sql SQL语句
+   * @param maxWidth 改写后每条语句最多包含的行数
+   * @return 解析结果，不能改写或者改写后每条语句不足两行时返回null
+   */
+  static MultiRowInsert parse(String sql, int maxWidth) {
+    Matcher matcher = INSERT_VALUES.matcher(sql);
+    if (!matcher.find()) {
+      return null;
+    }
+    int start = matcher.end() - 1;
+    if (countParameters(sql, 0, start) != 0) {
+      return null;
+    }
+    int end = findClosingParenthesis(sql, start);
+    if (end < 0 || !sql.substring(end + 1).trim().isEmpty()) {
+      return null;
+    }
+    String prefix = sql.substring(0, start);
+    if (prefix.toLowerCase(Locale.ENGLISH).contains("select")) {
+      return null;
+    }
+    int parameterCount = countParameters(sql, start, end + 1);
+    int width = parameterCount == 0 ? maxWidth : Math.min(maxWidth, MAX_PARAMETERS / parameterCount);
+    if (width <= 1) {
+      return null;
+    }
+    return new MultiRowInsert(prefix, sql.substring(start, end + 1), parameterCount, width);
+  }
+
+  int getParameterCount() {
+    return parameterCount;
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  /**
+   * 生成插入多行数据的语句
+   * @return SQL语句
+   */
+  String getSql() {
+    StringBuilder sql = new StringBuilder(prefix.length() + (row.length() + 2) * width);
+    sql.append(prefix);
+    for (int i = 0; i < width; i++) {
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append(row);
+    }
+    return sql.toString();
+  }
+
+  /**
+   * 统计引号之外的占位符数目
+   */
+  private static int countParameters(String sql, int from, int to) {
+    int count = 0;
+    char quote = 0;
+    for (int i = from; i < to; i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '?') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * 查找与给定位置的左括号相匹配的右括号，忽略引号中的括号
+   * @return 右括号的位置，找不到时返回-1
+   */
+  private static int findClosingParenthesis(String sql, int open) {
+    int depth = 0;
+    char quote = 0;
+    for (int i = open; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')' && --depth == 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
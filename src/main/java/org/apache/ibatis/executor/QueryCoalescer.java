@@ -0,0 +1,207 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.mapping.CoalesceMode;
+
+/**
+ * 并发的相同查询共享同一次数据库访问。
+ *
+ * 第一个到达的调用者访问数据库，在它完成之前到达的相同查询（CacheKey相同）登记为跟随者并等待其结果。
+ * 查询完成后立刻从登记表中移除，因此登记表中只会保留正在执行的查询。
+ * 跟随者等待超时后放弃等待，自行访问数据库，避免正在执行的查询等待跟随者持有的锁时互相阻塞。
+ */
+public class QueryCoalescer {
+
+  // 正在执行的查询
+  private final ConcurrentHashMap<Object, InFlightQuery> inFlightQueries = new ConcurrentHashMap<>();
+
+  /**
+   * 执行查询，如果已有相同的查询正在执行，则等待并共享其结果
+   * @param key 查询的键
+   * @param mode 合并模式
+   * @param waitTimeout 等待正在执行的相同查询的最长毫秒数
+   * @param query 真正访问数据库的查询
+   * @param <E> 结果类型
+   * @return 查询结果
+   * @throws SQLException
+   */
+  public <E> List<E> query(Object key, CoalesceMode mode, long waitTimeout, Query<E> query) throws SQLException {
+    InFlightQuery inFlight = new InFlightQuery();
+    InFlightQuery existing = inFlightQueries.putIfAbsent(key, inFlight);
+    if (existing != null) {
+      if (existing.join() && existing.await(waitTimeout)) {
+        return existing.getResults(mode);
+      }
+      // 正在执行的查询已经结束且不再接收跟随者，或者等待超时，自行访问数据库
+      return query.execute();
+    }
+
+    List<E> list;
+    try {
+      list = query.execute();
+    } catch (SQLException | RuntimeException | Error e) {
+      inFlightQueries.remove(key, inFlight);
+      inFlight.fail(e);
+      throw e;
+    }
+    inFlightQueries.remove(key, inFlight);
+    inFlight.complete(list, mode);
+    return list;
+  }
+
+  /**
+   * 获取正在执行的查询的数目
+   * @return 正在执行的查询的数目
+   */
+  public int getInFlightCount() {
+    return inFlightQueries.size();
+  }
+
+  /**
+   * 真正访问数据库的查询
+   * @param <E> 结果类型
+   */
+  @FunctionalInterface
+  public interface Query<E> {
+    List<E> execute() throws SQLException;
+  }
+
+  /**
+   * 一次正在执行的查询
+   */
+  private static final class InFlightQuery {
+    // 表示已不再接收跟随者
+    private static final int SEALED = -1;
+
+    // 跟随者数目
+    private final AtomicInteger followers = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    // 以下字段在done计数归零前写入，之后只读
+    private Object[] sharedResults;
+    private byte[] serializedResults;
+    private Throwable failure;
+
+    /**
+     * 登记为跟随者
+     * @return 是否登记成功，查询已经结束时登记失败
+     */
+    boolean join() {
+      for (;;) {
+        int count = followers.get();
+        if (count == SEALED) {
+          return false;
+        }
+        if (followers.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    void complete(List<?> list, CoalesceMode mode) {
+      // 封闭之后不会再有新的跟随者，没有跟随者时不必为其准备结果
+      if (followers.getAndSet(SEALED) > 0) {
+        try {
+          if (mode == CoalesceMode.COPY) {
+            serializedResults = serialize(list);
+          } else {
+            sharedResults = list.toArray();
+          }
+        } catch (RuntimeException e) {
+          failure = e;
+        }
+      }
+      done.countDown();
+    }
+
+    void fail(Throwable t) {
+      followers.set(SEALED);
+      failure = t;
+      done.countDown();
+    }
+
+    /**
+     * 等待查询结束
+     * @param timeout 最长等待的毫秒数
+     * @return 查询是否在超时前结束
+     */
+    boolean await(long timeout) {
+      try {
+        return done.await(timeout, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ExecutorException("Interrupted while waiting for a coalesced query.", e);
+      }
+    }
+
+    /**
+     * 获取查询结束后的结果，只能在await返回true后调用
+     * @param mode 合并模式
+     * @param <E> 结果类型
+     * @return 结果列表
+     * @throws SQLException 查询失败
+     */
+    @SuppressWarnings("unchecked")
+    <E> List<E> getResults(CoalesceMode mode) throws SQLException {
+      if (failure instanceof SQLException) {
+        SQLException cause = (SQLException) failure;
+        throw new SQLException("Error executing coalesced query.  Cause: " + cause, cause.getSQLState(), cause.getErrorCode(), cause);
+      } else if (failure != null) {
+        throw new ExecutorException("Error executing coalesced query.  Cause: " + failure, failure);
+      }
+      // 每个跟随者都得到自己的结果列表
+      if (mode == CoalesceMode.COPY) {
+        return (List<E>) deserialize(serializedResults);
+      }
+      return new ArrayList<>((List<E>) Arrays.asList(sharedResults));
+    }
+
+    private static byte[] serialize(List<?> list) {
+      try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+           ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+        oos.writeObject(new ArrayList<>(list));
+        oos.flush();
+        return bos.toByteArray();
+      } catch (Exception e) {
+        throw new ExecutorException("Error serializing coalesced query results.  Cause: " + e, e);
+      }
+    }
+
+    private static Object deserialize(byte[] value) {
+      try (ByteArrayInputStream bis = new ByteArrayInputStream(value);
+           ObjectInputStream ois = new SerializedCache.CustomObjectInputStream(bis)) {
+        return ois.readObject();
+      } catch (Exception e) {
+        throw new ExecutorException("Error deserializing coalesced query results.  Cause: " + e, e);
+      }
+    }
+  }
+
+}
@@ -65,6 +65,9 @@ public class ReuseExecutor extends BaseExecutor {
     Configuration configuration = ms.getConfiguration();
     StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
     Statement stmt = prepareStatement(handler, ms.getStatementLog());
+    if (configuration.isStreamingCursorFetch()) {
+      configuration.getFetchSizeAdvisor().applyStreamingFetchSize(ms, stmt);
+    }
     return handler.queryCursor(stmt);
   }
 
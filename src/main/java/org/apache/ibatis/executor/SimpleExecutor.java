@@ -72,6 +72,9 @@ public class SimpleExecutor extends BaseExecutor {
     StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
     Statement stmt = prepareStatement(handler, ms.getStatementLog());
     stmt.closeOnCompletion();
+    if (configuration.isStreamingCursorFetch()) {
+      configuration.getFetchSizeAdvisor().applyStreamingFetchSize(ms, stmt);
+    }
     return handler.queryCursor(stmt);
   }
 
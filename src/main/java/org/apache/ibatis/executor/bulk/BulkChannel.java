@@ -0,0 +1,39 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.bulk;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+
+/**
+ * 将数据逐行导入表中的通道。
+ *
+ * 实现类应当逐行读取数据并及时发送，占用的内存不随数据量增长。
+ */
+public interface BulkChannel {
+
+  /**
+   * 将数据导入表中
+   * @param connection 数据库连接，导入在该连接当前的事务中进行
+   * @param mapping 表的列与对象属性之间的映射
+   * @param rows 要导入的对象
+   * @return 导入的行数
+   * @throws SQLException
+   */
+  long load(Connection connection, BulkLoadMapping mapping, Iterator<?> rows) throws SQLException;
+
+}
@@ -0,0 +1,185 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.bulk;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeException;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+/**
+ * 批量导入的目标表的列，以及每一列的值读取自哪个属性。
+ *
+ * 可以由resultMap创建，使用其中简单映射的列名、属性和类型处理器；也可以由parameterMap创建，使用属性名作为列名。
+ */
+public class BulkLoadMapping {
+
+  private final Configuration configuration;
+  private final TypeHandlerRegistry typeHandlerRegistry;
+  // 表名
+  private final String table;
+  // 导入的列
+  private final List<Column> columns;
+
+  BulkLoadMapping(Configuration configuration, String table, List<Column> columns) {
+    this.configuration = configuration;
+    this.typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    this.table = table;
+    this.columns = Collections.unmodifiableList(columns);
+  }
+
+  /**
+   * 根据resultMap或parameterMap创建映射
+   * @param configuration 配置信息
+   * @param table 表名
+   * @param mapId resultMap或parameterMap的id
+   * @return 映射
+   */
+  public static BulkLoadMapping build(Configuration configuration, String table, String mapId) {
+    List<Column> columns = new ArrayList<>();
+    if (configuration.hasResultMap(mapId)) {
+      ResultMap resultMap = configuration.getResultMap(mapId);
+      for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+        if (resultMapping.getNestedQueryId() != null || resultMapping.getNestedResultMapId() != null
+            || resultMapping.isCompositeResult() || resultMapping.getColumn() == null) {
+          // 嵌套映射的数据不在本表中
+          continue;
+        }
+        if (resultMapping.getProperty() == null) {
+          throw new ExecutorException("Cannot bulk load column '" + resultMapping.getColumn() + "' of result map '" + mapId
+              + "' because it is not mapped to a property.");
+        }
+        columns.add(new Column(resultMapping.getColumn(), resultMapping.getProperty(), resultMapping.getTypeHandler(),
+            resultMapping.getJdbcType()));
+      }
+    } else if (configuration.hasParameterMap(mapId)) {
+      ParameterMap parameterMap = configuration.getParameterMap(mapId);
+      for (ParameterMapping parameterMapping : parameterMap.getParameterMappings()) {
+        if (parameterMapping.getMode() != ParameterMode.OUT) {
+          columns.add(new Column(parameterMapping.getProperty(), parameterMapping.getProperty(), parameterMapping.getTypeHandler(),
+              parameterMapping.getJdbcType()));
+        }
+      }
+    } else {
+      throw new ExecutorException("No result map or parameter map named '" + mapId + "' is available for bulk loading.");
+    }
+    if (columns.isEmpty()) {
+      throw new ExecutorException("The map '" + mapId + "' does not map any column for bulk loading.");
+    }
+    return new BulkLoadMapping(configuration, table, columns);
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  public List<Column> getColumns() {
+    return columns;
+  }
+
+  /**
+   * 获取插入一行数据的语句
+   * @return INSERT语句
+   */
+  public String getInsertSql() {
+    StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+    StringBuilder values = new StringBuilder(") VALUES (");
+    for (int i = 0; i < columns.size(); i++) {
+      if (i > 0) {
+        sql.append(", ");
+        values.append(", ");
+      }
+      sql.append(columns.get(i).getName());
+      values.append('?');
+    }
+    return sql.append(values).append(')').toString();
+  }
+
+  /**
+   * 通过类型处理器将一个对象的各列的值设置到语句中
+   * @param ps 语句
+   * @param row 对象
+   */
+  public void setParameters(PreparedStatement ps, Object row) {
+    // 对象本身有类型处理器时，对象即为每一列的值
+    boolean rowIsValue = row == null || typeHandlerRegistry.hasTypeHandler(row.getClass());
+    MetaObject metaObject = rowIsValue ? null : configuration.newMetaObject(row);
+    for (int i = 0; i < columns.size(); i++) {
+      Column column = columns.get(i);
+      Object value = rowIsValue ? row : metaObject.getValue(column.property);
+      JdbcType jdbcType = column.jdbcType;
+      if (value == null && jdbcType == null) {
+        jdbcType = configuration.getJdbcTypeForNull();
+      }
+      try {
+        column.typeHandler.setParameter(ps, i + 1, value, jdbcType);
+      } catch (TypeException | SQLException e) {
+        throw new TypeException("Could not set parameters for column: " + column.name + ". Cause: " + e, e);
+      }
+    }
+  }
+
+  /**
+   * 导入的一列
+   */
+  public static final class Column {
+    // 列名
+    private final String name;
+    // 属性名
+    private final String property;
+    @SuppressWarnings("rawtypes")
+    private final TypeHandler typeHandler;
+    private final JdbcType jdbcType;
+
+    Column(String name, String property, TypeHandler<?> typeHandler, JdbcType jdbcType) {
+      this.name = name;
+      this.property = property;
+      this.typeHandler = typeHandler;
+      this.jdbcType = jdbcType;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getProperty() {
+      return property;
+    }
+
+    public TypeHandler<?> getTypeHandler() {
+      return typeHandler;
+    }
+
+    public JdbcType getJdbcType() {
+      return jdbcType;
+    }
+  }
+
+}
@@ -0,0 +1,67 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.bulk;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+
+/**
+ * 通过批量执行单行INSERT语句导入数据，适用于任何JDBC驱动。
+ *
+ * 每积累batchSize行执行一次批处理，内存中最多保留一个批次的参数。
+ */
+public class JdbcBatchBulkChannel implements BulkChannel {
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  // 每个批次的行数
+  private final int batchSize;
+
+  public JdbcBatchBulkChannel() {
+    this(DEFAULT_BATCH_SIZE);
+  }
+
+  public JdbcBatchBulkChannel(int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public long load(Connection connection, BulkLoadMapping mapping, Iterator<?> rows) throws SQLException {
+    try (PreparedStatement ps = connection.prepareStatement(mapping.getInsertSql())) {
+      long count = 0;
+      int pending = 0;
+      while (rows.hasNext()) {
+        mapping.setParameters(ps, rows.next());
+        ps.addBatch();
+        count++;
+        if (++pending == batchSize) {
+          ps.executeBatch();
+          pending = 0;
+        }
+      }
+      if (pending > 0) {
+        ps.executeBatch();
+      }
+      return count;
+    }
+  }
+
+}
@@ -0,0 +1,303 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.bulk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * 通过PostgreSQL的COPY ... FROM STDIN协议导入数据，连接不是PostgreSQL连接时改用另一个通道。
+ *
+ * PostgreSQL驱动是可选的依赖，因此通过反射调用CopyManager。每个值先交给类型处理器，
+ * 类型处理器设置到语句上的值再按照COPY的文本格式编码，数据经过固定大小的缓冲区发送。
+ */
+public class PostgresCopyBulkChannel implements BulkChannel {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  // 驱动不存在时为null
+  private static final CopyApi COPY_API = CopyApi.load();
+
+  // 不是PostgreSQL连接时使用的通道
+  private final BulkChannel fallback;
+
+  public PostgresCopyBulkChannel() {
+    this(new JdbcBatchBulkChannel());
+  }
+
+  public PostgresCopyBulkChannel(BulkChannel fallback) {
+    this.fallback = fallback;
+  }
+
+  @Override
+  public long load(Connection connection, BulkLoadMapping mapping, Iterator<?> rows) throws SQLException {
+    if (COPY_API == null || !connection.isWrapperFor(COPY_API.connectionType)) {
+      return fallback.load(connection, mapping, rows);
+    }
+    Object copyManager = COPY_API.invoke(COPY_API.getCopyAPI, connection.unwrap(COPY_API.connectionType));
+    Object copyIn = COPY_API.invoke(COPY_API.copyIn, copyManager, getCopySql(mapping));
+    boolean completed = false;
+    try {
+      List<BulkLoadMapping.Column> columns = mapping.getColumns();
+      ParameterCapture capture = new ParameterCapture(columns.size());
+      PreparedStatement capturingStatement = (PreparedStatement) Proxy.newProxyInstance(
+          PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, capture);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int length = 0;
+      StringBuilder line = new StringBuilder();
+      while (rows.hasNext()) {
+        capture.clear();
+        mapping.setParameters(capturingStatement, rows.next());
+        line.setLength(0);
+        for (int i = 0; i < capture.values.length; i++) {
+          if (i > 0) {
+            line.append('\t');
+          }
+          appendValue(line, capture.values[i]);
+        }
+        line.append('\n');
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (length + bytes.length > buffer.length) {
+          COPY_API.invoke(COPY_API.writeToCopy, copyIn, buffer, 0, length);
+          length = 0;
+        }
+        if (bytes.length > buffer.length) {
+          COPY_API.invoke(COPY_API.writeToCopy, copyIn, bytes, 0, bytes.length);
+        } else {
+          System.arraycopy(bytes, 0, buffer, length, bytes.length);
+          length += bytes.length;
+        }
+      }
+      if (length > 0) {
+        COPY_API.invoke(COPY_API.writeToCopy, copyIn, buffer, 0, length);
+      }
+      long count = (Long) COPY_API.invoke(COPY_API.endCopy, copyIn);
+      completed = true;
+      return count;
+    } finally {
+      if (!completed) {
+        cancelCopy(copyIn);
+      }
+    }
+  }
+
+  private void cancelCopy(Object copyIn) {
+    try {
+      if (Boolean.TRUE.equals(COPY_API.invoke(COPY_API.isActive, copyIn))) {
+        COPY_API.invoke(COPY_API.cancelCopy, copyIn);
+      }
+    } catch (SQLException | RuntimeException e) {
+      // 忽略，保留导入过程中的异常
+    }
+  }
+
+  private String getCopySql(BulkLoadMapping mapping) {
+    StringBuilder sql = new StringBuilder("COPY ").append(mapping.getTable()).append(" (");
+    List<BulkLoadMapping.Column> columns = mapping.getColumns();
+    for (int i = 0; i < columns.size(); i++) {
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append(columns.get(i).getName());
+    }
+    return sql.append(") FROM STDIN").toString();
+  }
+
+  /**
+   * 按照COPY的文本格式追加一个值
+   * @param line 当前行
+   * @param value 类型处理器设置的值
+   * @throws SQLException
+   */
+  private void appendValue(StringBuilder line, Object value) throws SQLException {
+    if (value == null) {
+      line.append("\\N");
+    } else if (value instanceof Boolean) {
+      line.append((Boolean) value ? 't' : 'f');
+    } else if (value instanceof BigDecimal) {
+      line.append(((BigDecimal) value).toPlainString());
+    } else if (value instanceof byte[]) {
+      appendBytes(line, (byte[]) value);
+    } else if (value instanceof InputStream) {
+      appendBytes(line, readFully((InputStream) value));
+    } else if (value instanceof Reader) {
+      appendText(line, readFully((Reader) value));
+    } else {
+      appendText(line, value.toString());
+    }
+  }
+
+  private void appendText(StringBuilder line, CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '\\':
+          line.append("\\\\");
+          break;
+        case '\t':
+          line.append("\\t");
+          break;
+        case '\n':
+          line.append("\\n");
+          break;
+        case '\r':
+          line.append("\\r");
+          break;
+        default:
+          line.append(c);
+      }
+    }
+  }
+
+  private void appendBytes(StringBuilder line, byte[] bytes) {
+    // bytea的十六进制格式，反斜杠需要转义
+    line.append("\\\\x");
+    for (byte b : bytes) {
+      line.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+    }
+  }
+
+  private byte[] readFully(InputStream in) throws SQLException {
+    try {
+      byte[] bytes = new byte[8192];
+      int length = 0;
+      int n;
+      while ((n = in.read(bytes, length, bytes.length - length)) >= 0) {
+        length += n;
+        if (length == bytes.length) {
+          bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+      }
+      return Arrays.copyOf(bytes, length);
+    } catch (IOException e) {
+      throw new SQLException("Error reading stream for COPY. Cause: " + e, e);
+    }
+  }
+
+  private String readFully(Reader in) throws SQLException {
+    try {
+      StringBuilder text = new StringBuilder();
+      char[] chars = new char[4096];
+      int n;
+      while ((n = in.read(chars)) >= 0) {
+        text.append(chars, 0, n);
+      }
+      return text.toString();
+    } catch (IOException e) {
+      throw new SQLException("Error reading stream for COPY. Cause: " + e, e);
+    }
+  }
+
+  /**
+   * 记录类型处理器设置到语句上的值
+   */
+  private static final class ParameterCapture implements InvocationHandler {
+    private final Object[] values;
+
+    ParameterCapture(int size) {
+      this.values = new Object[size];
+    }
+
+    void clear() {
+      Arrays.fill(values, null);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+        values[(Integer) args[0] - 1] = "setNull".equals(name) ? null : args[1];
+        return null;
+      }
+      if (method.getDeclaringClass() == Object.class) {
+        if ("equals".equals(name)) {
+          return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+          return System.identityHashCode(proxy);
+        }
+        return "COPY parameter capture";
+      }
+      throw new SQLFeatureNotSupportedException("PreparedStatement." + name + " is not supported when encoding COPY data");
+    }
+  }
+
+  /**
+   * 通过反射访问的PostgreSQL驱动接口
+   */
+  private static final class CopyApi {
+    private final Class<?> connectionType;
+    private final Method getCopyAPI;
+    private final Method copyIn;
+    private final Method writeToCopy;
+    private final Method endCopy;
+    private final Method cancelCopy;
+    private final Method isActive;
+
+    private CopyApi(Class<?> connectionType, Class<?> copyManagerType, Class<?> copyInType) throws NoSuchMethodException {
+      this.connectionType = connectionType;
+      this.getCopyAPI = connectionType.getMethod("getCopyAPI");
+      this.copyIn = copyManagerType.getMethod("copyIn", String.class);
+      this.writeToCopy = copyInType.getMethod("writeToCopy", byte[].class, int.class, int.class);
+      this.endCopy = copyInType.getMethod("endCopy");
+      this.cancelCopy = copyInType.getMethod("cancelCopy");
+      this.isActive = copyInType.getMethod("isActive");
+    }
+
+    static CopyApi load() {
+      try {
+        return new CopyApi(Resources.classForName("org.postgresql.PGConnection"),
+            Resources.classForName("org.postgresql.copy.CopyManager"),
+            Resources.classForName("org.postgresql.copy.CopyIn"));
+      } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+        return null;
+      }
+    }
+
+    Object invoke(Method method, Object target, Object... args) throws SQLException {
+      try {
+        return method.invoke(target, args);
+      } catch (IllegalAccessException e) {
+        throw new SQLException("Could not invoke " + method + ". Cause: " + e, e);
+      } catch (InvocationTargetException e) {
+        Throwable cause = ExceptionUtil.unwrapThrowable(e);
+        if (cause instanceof SQLException) {
+          throw (SQLException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new SQLException("Error invoking " + method + ". Cause: " + cause, cause);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,303 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.ResultExtractor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.defaults.DefaultSqlSession.StrictMap;
+
+/**
+ * 将多个父对象的嵌套查询合并为批量查询。
+ *
+ * 同一次查询中使用同一个嵌套映射的父对象先登记各自的嵌套查询参数，需要结果时每次取出最多batchSelectSize个参数，
+ * 以参数列表（参数名为list或collection）执行batchSelect语句，再按结果中foreignColumn列的值把结果分配回各个父对象。
+ * 父对象的关联列与foreignColumn列按顺序一一对应，和多结果集的关联方式相同，都以字符串形式比较。
+ */
+public class BatchResultLoader {
+
+  private final Configuration configuration;
+  private final Executor executor;
+  private final MappedStatement batchStatement;
+  private final String property;
+  private final String[] foreignColumns;
+  private final int batchSize;
+  private final ResultExtractor resultExtractor;
+  private final long creatorThreadId;
+
+  // 尚未加载或者还有父对象等待写入结果的条目，关联列的值相同的父对象共用一个条目。
+  // 已经完成的条目随即移除，流式处理大量父对象时不会持有所有子对象
+  private final Map<CacheKey, Entry> entries = new HashMap<>();
+  // 尚未加载的条目，按登记顺序排列
+  private final Map<CacheKey, Entry> pendingEntries = new LinkedHashMap<>();
+  // 有父对象等待写入结果的条目，只用于立即加载
+  private final List<Entry> eagerEntries = new ArrayList<>();
+  // 等待写入结果的父对象数
+  private int eagerLoadCount;
+
+  public BatchResultLoader(Configuration configuration, Executor executor, ResultMapping resultMapping) {
+    this.configuration = configuration;
+    this.executor = executor;
+    this.batchStatement = configuration.getMappedStatement(resultMapping.getNestedBatchQueryId());
+    this.property = resultMapping.getProperty();
+    this.foreignColumns = resultMapping.getForeignColumn().split(",");
+    for (int i = 0; i < foreignColumns.length; i++) {
+      foreignColumns[i] = foreignColumns[i].trim();
+    }
+    this.batchSize = Math.max(1, configuration.getBatchSelectSize());
+    this.resultExtractor = new ResultExtractor(configuration, configuration.getObjectFactory());
+    this.creatorThreadId = Thread.currentThread().getId();
+  }
+
+  /**
+   * 登记一个父对象的嵌套查询
+   * @param key 父对象关联列的值
+   * @param parameterObject 嵌套查询的参数
+   * @param targetType 属性的类型
+   * @return 父对象对应的条目
+   */
+  public synchronized Entry addEntry(CacheKey key, Object parameterObject, Class<?> targetType) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry(key, parameterObject, targetType);
+      entries.put(key, entry);
+      pendingEntries.put(key, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * 登记一个立即加载的属性。等待写入结果的父对象达到batchSelectSize个时立即批量加载，
+   * 其余的在调用{@link #loadAll()}后写入结果
+   * @param key 父对象关联列的值
+   * @param parameterObject 嵌套查询的参数
+   * @param targetType 属性的类型
+   * @param metaResultObject 父对象
+   * @throws SQLException 查询出错
+   */
+  public synchronized void addEagerLoad(CacheKey key, Object parameterObject, Class<?> targetType, MetaObject metaResultObject) throws SQLException {
+    Entry entry = addEntry(key, parameterObject, targetType);
+    if (entry.metaResultObjects.isEmpty()) {
+      eagerEntries.add(entry);
+    }
+    entry.metaResultObjects.add(metaResultObject);
+    if (++eagerLoadCount >= batchSize) {
+      loadAll();
+    }
+  }
+
+  /**
+   * 创建懒加载使用的ResultLoader，第一次加载时会连同其他尚未加载的父对象一起批量查询
+   */
+  public ResultLoader newResultLoader(CacheKey key, MappedStatement nestedQuery, Object parameterObject, Class<?> targetType,
+      CacheKey cacheKey, BoundSql boundSql) {
+    return new BatchedResultLoader(this, addEntry(key, parameterObject, targetType), nestedQuery, parameterObject, targetType,
+        cacheKey, boundSql);
+  }
+
+  /**
+   * 加载所有尚未加载的条目，并将结果写入登记的父对象
+   * @throws SQLException 查询出错
+   */
+  public synchronized void loadAll() throws SQLException {
+    while (!pendingEntries.isEmpty()) {
+      load(pendingEntries.values().iterator().next());
+    }
+    for (Entry entry : eagerEntries) {
+      if (entry.resultObject != null || configuration.isCallSettersOnNulls()) {
+        for (MetaObject metaResultObject : entry.metaResultObjects) {
+          metaResultObject.setValue(property, entry.resultObject);
+        }
+      }
+      entry.metaResultObjects.clear();
+      entries.remove(entry.key, entry);
+    }
+    // 结果写入后不再持有父对象
+    eagerEntries.clear();
+    eagerLoadCount = 0;
+  }
+
+  /**
+   * 加载指定的条目，同时加载最多batchSelectSize - 1个其他尚未加载的条目
+   * @param requested 需要加载的条目
+   * @return 条目的结果
+   * @throws SQLException 查询出错
+   */
+  synchronized Object load(Entry requested) throws SQLException {
+    if (requested.loaded) {
+      return requested.resultObject;
+    }
+    List<Entry> chunk = new ArrayList<>(Math.min(batchSize, pendingEntries.size()));
+    chunk.add(requested);
+    pendingEntries.remove(requested.key);
+    for (Iterator<Entry> iterator = pendingEntries.values().iterator(); chunk.size() < batchSize && iterator.hasNext(); ) {
+      chunk.add(iterator.next());
+      iterator.remove();
+    }
+    List<Object> parameters = new ArrayList<>(chunk.size());
+    for (Entry entry : chunk) {
+      parameters.add(entry.parameterObject);
+    }
+    ResultCollector collector = new ResultCollector(foreignColumns);
+    try {
+      query(parameters, collector);
+    } catch (SQLException | RuntimeException e) {
+      // 查询失败时把条目放回，之后仍可重试
+      for (Entry entry : chunk) {
+        pendingEntries.put(entry.key, entry);
+      }
+      throw e;
+    }
+    for (Entry entry : chunk) {
+      entry.resultObject = resultExtractor.extractObjectFromList(collector.getResults(entry.key), entry.targetType);
+      entry.loaded = true;
+      if (entry.metaResultObjects.isEmpty()) {
+        // 懒加载的代理直接持有条目，之后登记的相同父对象会重新查询
+        entries.remove(entry.key, entry);
+      }
+    }
+    return requested.resultObject;
+  }
+
+  private void query(List<Object> parameters, ResultCollector collector) throws SQLException {
+    StrictMap<Object> parameterObject = new StrictMap<>();
+    parameterObject.put("collection", parameters);
+    parameterObject.put("list", parameters);
+    Executor localExecutor = executor;
+    if (Thread.currentThread().getId() != this.creatorThreadId || localExecutor.isClosed()) {
+      localExecutor = ResultLoader.newExecutor(configuration);
+    }
+    try {
+      BoundSql boundSql = batchStatement.getBoundSql(parameterObject);
+      CacheKey cacheKey = localExecutor.createCacheKey(batchStatement, parameterObject, RowBounds.DEFAULT, boundSql);
+      // 使用ResultHandler的查询会在一级缓存中留下空列表，加上标记以免影响对同一语句的普通查询
+      cacheKey.update(BatchResultLoader.class.getName());
+      localExecutor.query(batchStatement, parameterObject, RowBounds.DEFAULT, collector, cacheKey, boundSql);
+    } finally {
+      if (localExecutor != executor) {
+        localExecutor.close(false);
+      }
+    }
+  }
+
+  /**
+   * 一个父对象（或关联列的值相同的多个父对象）的嵌套查询
+   */
+  public static final class Entry {
+    private final CacheKey key;
+    private final Object parameterObject;
+    private final Class<?> targetType;
+    // 等待写入结果的父对象，只用于立即加载
+    private final List<MetaObject> metaResultObjects = new ArrayList<>(1);
+    private boolean loaded;
+    private Object resultObject;
+
+    Entry(CacheKey key, Object parameterObject, Class<?> targetType) {
+      this.key = key;
+      this.parameterObject = parameterObject;
+      this.targetType = targetType;
+    }
+  }
+
+  /**
+   * 收集批量查询的结果，按外键列的值分组。
+   * 结果集处理器把每个结果对象连同其所在行外键列的值一起交给该处理器，见{@link #withForeignKey(CacheKey, Object)}
+   */
+  public static final class ResultCollector implements ResultHandler<Object> {
+    private final String[] foreignColumns;
+    private final Map<CacheKey, List<Object>> results = new HashMap<>();
+
+    ResultCollector(String[] foreignColumns) {
+      this.foreignColumns = foreignColumns;
+    }
+
+    public String[] getForeignColumns() {
+      return foreignColumns;
+    }
+
+    /**
+     * 将结果对象与其所在行外键列的值组合起来，作为交给该处理器的结果
+     * @param foreignKey 结果对象所在行外键列的值
+     * @param resultObject 结果对象
+     * @return 交给该处理器的结果
+     */
+    public Object withForeignKey(CacheKey foreignKey, Object resultObject) {
+      return new KeyedResult(foreignKey, resultObject);
+    }
+
+    @Override
+    public void handleResult(ResultContext<?> resultContext) {
+      KeyedResult result = (KeyedResult) resultContext.getResultObject();
+      results.computeIfAbsent(result.foreignKey, k -> new ArrayList<>()).add(result.resultObject);
+    }
+
+    List<Object> getResults(CacheKey key) {
+      List<Object> list = results.get(key);
+      return list == null ? new ArrayList<>() : list;
+    }
+  }
+
+  /**
+   * 带有外键列的值的结果对象
+   */
+  private static final class KeyedResult {
+    private final CacheKey foreignKey;
+    private final Object resultObject;
+
+    KeyedResult(CacheKey foreignKey, Object resultObject) {
+      this.foreignKey = foreignKey;
+      this.resultObject = resultObject;
+    }
+  }
+
+  /**
+   * 懒加载时由批量查询提供结果的ResultLoader。序列化后恢复的代理仍使用原来的嵌套查询逐个加载
+   */
+  private static final class BatchedResultLoader extends ResultLoader {
+    private final BatchResultLoader batchResultLoader;
+    private final Entry entry;
+
+    BatchedResultLoader(BatchResultLoader batchResultLoader, Entry entry, MappedStatement nestedQuery, Object parameterObject,
+        Class<?> targetType, CacheKey cacheKey, BoundSql boundSql) {
+      super(batchResultLoader.configuration, batchResultLoader.executor, nestedQuery, parameterObject, targetType, cacheKey, boundSql);
+      this.batchResultLoader = batchResultLoader;
+      this.entry = entry;
+    }
+
+    @Override
+    public Object loadResult() throws SQLException {
+      resultObject = batchResultLoader.load(entry);
+      return resultObject;
+    }
+  }
+
+}
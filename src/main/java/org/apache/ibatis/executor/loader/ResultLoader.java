@@ -79,7 +79,7 @@ public class ResultLoader {
     Executor localExecutor = executor;
     if (Thread.currentThread().getId() != this.creatorThreadId || localExecutor.isClosed()) {
       // 执行器关闭，或者执行器属于其他线程，则创建新的执行器
-      localExecutor = newExecutor();
+      localExecutor = newExecutor(configuration);
     }
     try {
       // 查询结果
@@ -92,7 +92,7 @@ public class ResultLoader {
   }
 
   // 这才是创建一个真的执行器，而ClosedExecutor是假的执行器
-  private Executor newExecutor() {
+  static Executor newExecutor(Configuration configuration) {
     final Environment environment = configuration.getEnvironment();
     if (environment == null) {
       throw new ExecutorException("ResultLoader could not load lazily.  Environment was not configured.");
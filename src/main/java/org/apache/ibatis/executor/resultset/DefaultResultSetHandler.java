@@ -21,6 +21,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -36,6 +37,7 @@ import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.loader.BatchResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
@@ -51,8 +53,11 @@ import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.Reflector;
 import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.wrapper.BeanWrapper;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultContext;
@@ -91,14 +96,19 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private final Map<CacheKey, Object> nestedResultObjects = new HashMap<>();
   private final Map<String, Object> ancestorObjects = new HashMap<>();
   private Object previousRowValue;
+  // resultOrdered模式下上一行父对象的键，用于判断父对象是否已经完整
+  private CacheKey previousRowKey;
+
+  // batched nested queries
+  private final Map<ResultMapping, BatchResultLoader> batchResultLoaders = new HashMap<>();
+  // 立即加载的批量嵌套查询是否推迟执行。推迟时每登记满batchSelectSize个父对象执行一次，其余的在所有结果集处理完之后执行。
+  // 调用者提供了ResultHandler时父对象会立即交给它，游标查询中父对象会逐行返回，二者都不推迟，仍逐个执行嵌套查询
+  private boolean deferEagerBatchLoads;
 
   // multiple resultsets
   private final Map<String, ResultMapping> nextResultMaps = new HashMap<>();
   private final Map<CacheKey, List<PendingRelation>> pendingRelations = new HashMap<>();
 
-  // Cached Automappings
-  private final Map<String, List<UnMappedColumnAutoMapping>> autoMappingsCache = new HashMap<>();
-
   // temporary marking flag that indicate using constructor mapping (use field to reduce memory usage)
   private boolean useConstructorMappings;
 
@@ -107,20 +117,6 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     public ResultMapping propertyMapping;
   }
 
-  private static class UnMappedColumnAutoMapping {
-    private final String column;
-    private final String property;
-    private final TypeHandler<?> typeHandler;
-    private final boolean primitive;
-
-    public UnMappedColumnAutoMapping(String column, String property, TypeHandler<?> typeHandler, boolean primitive) {
-      this.column = column;
-      this.property = property;
-      this.typeHandler = typeHandler;
-      this.primitive = primitive;
-    }
-  }
-
   public DefaultResultSetHandler(Executor executor, MappedStatement mappedStatement, ParameterHandler parameterHandler, ResultHandler<?> resultHandler, BoundSql boundSql,
                                  RowBounds rowBounds) {
     this.executor = executor;
@@ -203,6 +199,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     // 用以存储处理结果的列表
     //定义返回结果的List
     final List<Object> multipleResults = new ArrayList<>();
+    deferEagerBatchLoads = resultHandler == null || resultHandler instanceof BatchResultLoader.ResultCollector;
     // 可能会有多个结果集，该变量用来对结果集进行计数
     //定义结果长度
     int resultSetCount = 0;
@@ -251,6 +248,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         resultSetCount++;
       }
     }
+    // 执行推迟的批量嵌套查询
+    loadBatchedNestedQueries();
     // 判断是否是单结果集：如果是则返回结果列表；如果否则返回结果集列表
     return collapseSingleResultList(multipleResults);
   }
@@ -322,6 +321,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private void cleanUpAfterHandlingResultSet() {
     nestedResultObjects.clear();
+    previousRowKey = null;
   }
 
   private void validateResultMapsCount(ResultSetWrapper rsw, int resultMapCount) {
@@ -356,11 +356,22 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
     } finally {
+      recordFetchStatistics(rsw);
       // issue #228 (close resultsets)
       closeResultSet(rsw.getResultSet());
     }
   }
 
+  /**
+   * 启用自适应fetchSize时，记录结果集的行数和行宽，供该语句以后的查询选择fetchSize
+   * @param rsw 尚未关闭的ResultSet的包装
+   */
+  public void recordFetchStatistics(ResultSetWrapper rsw) {
+    if (configuration.isAdaptiveFetchSize()) {
+      configuration.getFetchSizeAdvisor().recordResultSet(mappedStatement, boundSql.getSql(), rsw.getResultSet(), rsw.getFetchedRows());
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private List<Object> collapseSingleResultList(List<Object> multipleResults) {
     return multipleResults.size() == 1 ? (List<Object>) multipleResults.get(0) : multipleResults;
@@ -401,7 +412,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   }
 
   protected void checkResultHandler() {
-    if (resultHandler != null && configuration.isSafeResultHandlerEnabled() && !mappedStatement.isResultOrdered()) {
+    if (resultHandler != null && configuration.isSafeResultHandlerEnabled() && !mappedStatement.isResultOrdered()
+        && !(resultHandler instanceof BatchResultLoader.ResultCollector)) {
       throw new ExecutorException("Mapped Statements with nested result mappings cannot be safely used with a custom ResultHandler. "
           + "Use safeResultHandlerEnabled=false setting to bypass this check "
           + "or ensure your statement returns ordered data and set resultOrdered=true on it.");
@@ -427,6 +439,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     // 持续处理下一条结果，判断条件为：还有结果需要处理 && 结果集没有关闭 && 还有下一条结果
     while (shouldProcessMoreRows(resultContext, rowBounds) && !resultSet.isClosed() && resultSet.next()) {
       // 经过鉴别器鉴别，确定经过鉴别器分析的最终要使用的resultMap
+      rsw.incrementFetchedRows();
       ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(resultSet, resultMap, null);
       // 拿到了一行记录，并且将其转化为一个对象
       Object rowValue = getRowValue(rsw, discriminatedResultMap, null);
@@ -448,6 +461,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     if (parentMapping != null) {
       // 存在父级，则将这一行记录对应的结果对象绑定到父级结果上
       linkToParents(rs, parentMapping, rowValue);
+    } else if (resultHandler instanceof BatchResultLoader.ResultCollector) {
+      // 批量嵌套查询的结果需要按外键列的值分配给各个父对象
+      BatchResultLoader.ResultCollector collector = (BatchResultLoader.ResultCollector) resultHandler;
+      callResultHandler(resultHandler, resultContext, collector.withForeignKey(createKeyForBatchedNestedQuery(rs, collector.getForeignColumns()), rowValue));
     } else {
       // 使用resultHandler聚合该对象
       callResultHandler(resultHandler, resultContext, rowValue);
@@ -503,16 +520,15 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     // 创建这一行记录对应的对象
     Object rowValue = createResultObject(rsw, resultMap, lazyLoader, columnPrefix);
     if (rowValue != null && !hasTypeHandlerForResultObject(rsw, resultMap.getType())) {
-      // 根据对象得到其MetaObject
-      final MetaObject metaObject = configuration.newMetaObject(rowValue);
+      // 获取映射计划，第一行记录时生成
+      final ResultMappingPlan plan = getMappingPlan(rsw, resultMap, rowValue, columnPrefix, false);
+      // 只有映射计划不能直接调用setter时才需要MetaObject
+      final MetaObject metaObject = plan.isCompiledFor(rowValue) && !plan.isMetaObjectRequired() ? null : configuration.newMetaObject(rowValue);
       boolean foundValues = this.useConstructorMappings;
-      // 是否允许自动映射未明示的字段
-      if (shouldApplyAutomaticMappings(resultMap, false)) {
-        // 自动映射未明示的字段
-        foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, columnPrefix) || foundValues;
-      }
+      // 自动映射未明示的字段，不允许自动映射时计划中没有自动映射的列
+      foundValues = applyAutomaticMappings(rsw, plan, rowValue, metaObject) || foundValues;
       // 按照明示的字段进行重新映射
-      foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, columnPrefix) || foundValues;
+      foundValues = applyPropertyMappings(rsw, plan, rowValue, metaObject, lazyLoader, columnPrefix) || foundValues;
       foundValues = lazyLoader.size() > 0 || foundValues;
       rowValue = foundValues || configuration.isReturnInstanceForEmptyRow() ? rowValue : null;
     }
@@ -535,36 +551,29 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   // PROPERTY MAPPINGS
   //
 
-  private boolean applyPropertyMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, ResultLoaderMap lazyLoader, String columnPrefix)
+  private boolean applyPropertyMappings(ResultSetWrapper rsw, ResultMappingPlan plan, Object rowValue, MetaObject metaObject, ResultLoaderMap lazyLoader, String columnPrefix)
       throws SQLException {
-    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+    final ResultSet rs = rsw.getResultSet();
+    final boolean useSetters = plan.isCompiledFor(rowValue);
     boolean foundValues = false;
-    final List<ResultMapping> propertyMappings = resultMap.getPropertyResultMappings();
-    for (ResultMapping propertyMapping : propertyMappings) {
-      String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
-      if (propertyMapping.getNestedResultMapId() != null) {
-        // the user added a column attribute to a nested result map, ignore it
-        column = null;
+    for (ResultMappingPlan.ColumnMapping mapping : plan.getPropertyMappings()) {
+      Object value = mapping.isComplex()
+          ? getPropertyMappingValue(rs, metaObject, mapping.resultMapping, lazyLoader, columnPrefix)
+          : mapping.getResult(rs);
+      // issue #541 make property optional
+      final String property = mapping.property;
+      if (property == null) {
+        continue;
+      } else if (value == DEFERRED) {
+        foundValues = true;
+        continue;
       }
-      if (propertyMapping.isCompositeResult()
-          || (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH)))
-          || propertyMapping.getResultSet() != null) {
-        Object value = getPropertyMappingValue(rsw.getResultSet(), metaObject, propertyMapping, lazyLoader, columnPrefix);
-        // issue #541 make property optional
-        final String property = propertyMapping.getProperty();
-        if (property == null) {
-          continue;
-        } else if (value == DEFERRED) {
-          foundValues = true;
-          continue;
-        }
-        if (value != null) {
-          foundValues = true;
-        }
-        if (value != null || (configuration.isCallSettersOnNulls() && !metaObject.getSetterType(property).isPrimitive())) {
-          // gcode issue #377, call setter on nulls (value is not 'found')
-          metaObject.setValue(property, value);
-        }
+      if (value != null) {
+        foundValues = true;
+      }
+      if (value != null || (configuration.isCallSettersOnNulls() && !mapping.primitive)) {
+        // gcode issue #377, call setter on nulls (value is not 'found')
+        setPropertyValue(mapping, rowValue, metaObject, value, useSetters);
       }
     }
     return foundValues;
@@ -584,62 +593,156 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     }
   }
 
-  private List<UnMappedColumnAutoMapping> createAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
-    final String mapKey = resultMap.getId() + ":" + columnPrefix;
-    List<UnMappedColumnAutoMapping> autoMapping = autoMappingsCache.get(mapKey);
-    if (autoMapping == null) {
-      autoMapping = new ArrayList<>();
-      final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
-      for (String columnName : unmappedColumnNames) {
-        String propertyName = columnName;
-        if (columnPrefix != null && !columnPrefix.isEmpty()) {
-          // When columnPrefix is specified,
-          // ignore columns without the prefix.
-          if (columnName.toUpperCase(Locale.ENGLISH).startsWith(columnPrefix)) {
-            propertyName = columnName.substring(columnPrefix.length());
-          } else {
-            continue;
-          }
+  private boolean applyAutomaticMappings(ResultSetWrapper rsw, ResultMappingPlan plan, Object rowValue, MetaObject metaObject) throws SQLException {
+    final ResultSet rs = rsw.getResultSet();
+    final boolean useSetters = plan.isCompiledFor(rowValue);
+    boolean foundValues = false;
+    for (ResultMappingPlan.ColumnMapping mapping : plan.getAutoMappings()) {
+      final Object value = mapping.getResult(rs);
+      if (value != null) {
+        foundValues = true;
+      }
+      if (value != null || (configuration.isCallSettersOnNulls() && !mapping.primitive)) {
+        // gcode issue #377, call setter on nulls (value is not 'found')
+        setPropertyValue(mapping, rowValue, metaObject, value, useSetters);
+      }
+    }
+    return foundValues;
+  }
+
+  private void setPropertyValue(ResultMappingPlan.ColumnMapping mapping, Object rowValue, MetaObject metaObject, Object value, boolean useSetters) {
+    if (useSetters) {
+      mapping.setValue(rowValue, value);
+    } else {
+      metaObject.setValue(mapping.property, value);
+    }
+  }
+
+  //
+  // MAPPING PLANS
+  //
+
+  /**
+   * 获取结果映射在当前结果集上的映射计划。
+   * 先查找结果集包装中已有的计划，再查找同一映射语句此前针对相同列元数据和结果对象类型生成的计划，都没有时才生成新的计划。
+   * 计划第一次用于当前结果集时，重新报告自动映射遇到的未知列
+   * @param rsw 结果集包装
+   * @param resultMap 结果映射
+   * @param rowValue 当前记录对应的结果对象
+   * @param columnPrefix 列前缀
+   * @param isNested 是否为嵌套映射
+   * @return 映射计划
+   * @throws SQLException
+   */
+  private ResultMappingPlan getMappingPlan(ResultSetWrapper rsw, ResultMap resultMap, Object rowValue, String columnPrefix, boolean isNested) throws SQLException {
+    ResultMappingPlan plan = rsw.getMappingPlan(resultMap, columnPrefix);
+    if (plan == null || !plan.isBuiltFor(rowValue)) {
+      final String planKey = mappedStatement.getId() + ":" + resultMap.getId() + ":" + columnPrefix + ":" + isNested
+          + ":" + rowValue.getClass().getName() + ":" + rsw.getColumnSignature();
+      plan = configuration.getResultMappingPlan(planKey);
+      if (plan == null) {
+        plan = createMappingPlan(rsw, resultMap, rowValue, columnPrefix, isNested);
+        configuration.addResultMappingPlan(planKey, plan);
+      }
+      for (ResultMappingPlan.UnknownColumn unknownColumn : plan.getUnknownColumns()) {
+        configuration.getAutoMappingUnknownColumnBehavior()
+            .doAction(mappedStatement, unknownColumn.column, unknownColumn.property, unknownColumn.propertyType);
+      }
+      rsw.putMappingPlan(resultMap, columnPrefix, plan);
+    }
+    return plan;
+  }
+
+  private ResultMappingPlan createMappingPlan(ResultSetWrapper rsw, ResultMap resultMap, Object rowValue, String columnPrefix, boolean isNested) throws SQLException {
+    final MetaObject metaObject = configuration.newMetaObject(rowValue);
+    // 只有普通的JavaBean才能直接调用setter，Map、集合以及自定义包装的对象仍然通过MetaObject设置属性
+    final Reflector reflector = metaObject.getObjectWrapper() instanceof BeanWrapper ? reflectorFactory.findForClass(rowValue.getClass()) : null;
+    final List<ResultMappingPlan.UnknownColumn> unknownColumns = new ArrayList<>();
+    final List<ResultMappingPlan.ColumnMapping> autoMappings = shouldApplyAutomaticMappings(resultMap, isNested)
+        ? createAutomaticMappings(rsw, resultMap, metaObject, reflector, columnPrefix, unknownColumns) : Collections.emptyList();
+    final List<ResultMappingPlan.ColumnMapping> propertyMappings = createPropertyMappings(rsw, resultMap, metaObject, reflector, columnPrefix);
+    boolean compiled = reflector != null;
+    for (ResultMappingPlan.ColumnMapping mapping : autoMappings) {
+      compiled = compiled && mapping.setter != null;
+    }
+    for (ResultMappingPlan.ColumnMapping mapping : propertyMappings) {
+      compiled = compiled && (mapping.property == null || mapping.setter != null);
+    }
+    return new ResultMappingPlan(rowValue.getClass(), compiled ? rowValue.getClass() : null, autoMappings, propertyMappings, unknownColumns);
+  }
+
+  private List<ResultMappingPlan.ColumnMapping> createPropertyMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, Reflector reflector, String columnPrefix)
+      throws SQLException {
+    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+    final List<ResultMappingPlan.ColumnMapping> mappings = new ArrayList<>();
+    for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
+      String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
+      if (propertyMapping.getNestedResultMapId() != null) {
+        // the user added a column attribute to a nested result map, ignore it
+        column = null;
+      }
+      if (propertyMapping.isCompositeResult()
+          || (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH)))
+          || propertyMapping.getResultSet() != null) {
+        final String property = propertyMapping.getProperty();
+        final boolean complex = propertyMapping.getNestedQueryId() != null
+            || propertyMapping.getResultSet() != null
+            || propertyMapping.isCompositeResult();
+        final boolean primitive = property != null && metaObject.hasSetter(property) && metaObject.getSetterType(property).isPrimitive();
+        mappings.add(new ResultMappingPlan.ColumnMapping(column, rsw.getColumnIndex(column), property, propertyMapping.getTypeHandler(), primitive,
+            findSetter(reflector, property), complex ? propertyMapping : null));
+      }
+    }
+    return mappings;
+  }
+
+  private List<ResultMappingPlan.ColumnMapping> createAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, Reflector reflector, String columnPrefix,
+      List<ResultMappingPlan.UnknownColumn> unknownColumns) throws SQLException {
+    final List<ResultMappingPlan.ColumnMapping> autoMapping = new ArrayList<>();
+    final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
+    for (String columnName : unmappedColumnNames) {
+      String propertyName = columnName;
+      if (columnPrefix != null && !columnPrefix.isEmpty()) {
+        // When columnPrefix is specified,
+        // ignore columns without the prefix.
+        if (columnName.toUpperCase(Locale.ENGLISH).startsWith(columnPrefix)) {
+          propertyName = columnName.substring(columnPrefix.length());
+        } else {
+          continue;
         }
-        final String property = metaObject.findProperty(propertyName, configuration.isMapUnderscoreToCamelCase());
-        if (property != null && metaObject.hasSetter(property)) {
-          if (resultMap.getMappedProperties().contains(property)) {
-            continue;
-          }
-          final Class<?> propertyType = metaObject.getSetterType(property);
-          if (typeHandlerRegistry.hasTypeHandler(propertyType, rsw.getJdbcType(columnName))) {
-            final TypeHandler<?> typeHandler = rsw.getTypeHandler(propertyType, columnName);
-            autoMapping.add(new UnMappedColumnAutoMapping(columnName, property, typeHandler, propertyType.isPrimitive()));
-          } else {
-            configuration.getAutoMappingUnknownColumnBehavior()
-                .doAction(mappedStatement, columnName, property, propertyType);
-          }
+      }
+      final String property = metaObject.findProperty(propertyName, configuration.isMapUnderscoreToCamelCase());
+      if (property != null && metaObject.hasSetter(property)) {
+        if (resultMap.getMappedProperties().contains(property)) {
+          continue;
+        }
+        final Class<?> propertyType = metaObject.getSetterType(property);
+        if (typeHandlerRegistry.hasTypeHandler(propertyType, rsw.getJdbcType(columnName))) {
+          final TypeHandler<?> typeHandler = rsw.getTypeHandler(propertyType, columnName);
+          autoMapping.add(new ResultMappingPlan.ColumnMapping(columnName, rsw.getColumnIndex(columnName), property, typeHandler, propertyType.isPrimitive(),
+              findSetter(reflector, property), null));
         } else {
-          configuration.getAutoMappingUnknownColumnBehavior()
-              .doAction(mappedStatement, columnName, (property != null) ? property : propertyName, null);
+          unknownColumns.add(new ResultMappingPlan.UnknownColumn(columnName, property, propertyType));
         }
+      } else {
+        unknownColumns.add(new ResultMappingPlan.UnknownColumn(columnName, (property != null) ? property : propertyName, null));
       }
-      autoMappingsCache.put(mapKey, autoMapping);
     }
     return autoMapping;
   }
 
-  private boolean applyAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
-    List<UnMappedColumnAutoMapping> autoMapping = createAutomaticMappings(rsw, resultMap, metaObject, columnPrefix);
-    boolean foundValues = false;
-    if (!autoMapping.isEmpty()) {
-      for (UnMappedColumnAutoMapping mapping : autoMapping) {
-        final Object value = mapping.typeHandler.getResult(rsw.getResultSet(), mapping.column);
-        if (value != null) {
-          foundValues = true;
-        }
-        if (value != null || (configuration.isCallSettersOnNulls() && !mapping.primitive)) {
-          // gcode issue #377, call setter on nulls (value is not 'found')
-          metaObject.setValue(mapping.property, value);
-        }
-      }
+  /**
+   * 查找可以直接调用的setter，嵌套的属性路径返回null
+   * @param reflector 结果对象的反射器
+   * @param property 属性名
+   * @return setter
+   */
+  private Invoker findSetter(Reflector reflector, String property) {
+    if (reflector == null || property == null || property.indexOf('.') >= 0 || property.indexOf('[') >= 0
+        || !reflector.hasSetter(property)) {
+      return null;
     }
-    return foundValues;
+    return reflector.getSetInvoker(property);
   }
 
   // MULTIPLE RESULT SETS
@@ -719,15 +822,13 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private Object createResultObject(ResultSetWrapper rsw, ResultMap resultMap, List<Class<?>> constructorArgTypes, List<Object> constructorArgs, String columnPrefix)
       throws SQLException {
     final Class<?> resultType = resultMap.getType();
-    // 要创建的类型的MetaClass
-    final MetaClass metaType = MetaClass.forClass(resultType, reflectorFactory);
     // 所有的构造函数列表
     final List<ResultMapping> constructorMappings = resultMap.getConstructorResultMappings();
     if (hasTypeHandlerForResultObject(rsw, resultType)) {
       return createPrimitiveResultObject(rsw, resultMap, columnPrefix);
     } else if (!constructorMappings.isEmpty()) {
       return createParameterizedResultObject(rsw, resultType, constructorMappings, constructorArgTypes, constructorArgs, columnPrefix);
-    } else if (resultType.isInterface() || metaType.hasDefaultConstructor()) {
+    } else if (resultType.isInterface() || MetaClass.forClass(resultType, reflectorFactory).hasDefaultConstructor()) {
       return objectFactory.create(resultType);
     } else if (shouldApplyAutomaticMappings(resultMap, false)) {
       return createByConstructorSignature(rsw, resultType, constructorArgTypes, constructorArgs);
@@ -783,7 +884,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       Class<?> parameterType = constructor.getParameterTypes()[i];
       String columnName = rsw.getColumnNames().get(i);
       TypeHandler<?> typeHandler = rsw.getTypeHandler(parameterType, columnName);
-      Object value = typeHandler.getResult(rsw.getResultSet(), columnName);
+      Object value = rsw.getColumnValue(typeHandler, columnName);
       constructorArgTypes.add(parameterType);
       constructorArgs.add(value);
       foundValues = value != null || foundValues;
@@ -828,7 +929,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       columnName = rsw.getColumnNames().get(0);
     }
     final TypeHandler<?> typeHandler = rsw.getTypeHandler(resultType, columnName);
-    return typeHandler.getResult(rsw.getResultSet(), columnName);
+    return rsw.getColumnValue(typeHandler, columnName);
   }
 
   //
@@ -866,6 +967,18 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       if (executor.isCached(nestedQuery, key)) {
         executor.deferLoad(nestedQuery, metaResultObject, property, key, targetType);
         value = DEFERRED;
+      } else if (propertyMapping.getNestedBatchQueryId() != null && (propertyMapping.isLazy() || deferEagerBatchLoads)) {
+        // 与其他父对象的嵌套查询合并为批量查询
+        final BatchResultLoader batchResultLoader = batchResultLoaders.computeIfAbsent(propertyMapping,
+            k -> new BatchResultLoader(configuration, executor, k));
+        final CacheKey batchKey = createKeyForBatchedNestedQuery(rs, getBatchedNestedQueryColumns(propertyMapping, columnPrefix));
+        if (propertyMapping.isLazy()) {
+          lazyLoader.addLoader(property, metaResultObject,
+              batchResultLoader.newResultLoader(batchKey, nestedQuery, nestedQueryParameterObject, targetType, key, nestedBoundSql));
+        } else {
+          batchResultLoader.addEagerLoad(batchKey, nestedQueryParameterObject, targetType, metaResultObject);
+        }
+        value = DEFERRED;
       } else {
         final ResultLoader resultLoader = new ResultLoader(configuration, executor, nestedQuery, nestedQueryParameterObject, targetType, key, nestedBoundSql);
         if (propertyMapping.isLazy()) {
@@ -933,9 +1046,12 @@ public class DefaultResultSetHandler implements ResultSetHandler {
    * @throws SQLException
    */
   public ResultMap resolveDiscriminatedResultMap(ResultSet rs, ResultMap resultMap, String columnPrefix) throws SQLException {
+    Discriminator discriminator = resultMap.getDiscriminator();
+    if (discriminator == null) {
+      return resultMap;
+    }
     // 已经处理过的鉴别器
     Set<String> pastDiscriminators = new HashSet<>();
-    Discriminator discriminator = resultMap.getDiscriminator();
     while (discriminator != null) {
       // 求解条件判断的结果，这个结果值就是鉴别器鉴别的依据
       final Object value = getDiscriminatorValue(rs, discriminator, columnPrefix);
@@ -994,29 +1110,39 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     // 根据翻页配置，跳过指定的行
     skipRows(resultSet, rowBounds);
     Object rowValue = previousRowValue;
+    // 批量嵌套查询在父对象的第一行读取外键，因此不按resultOrdered的方式延后交出父对象
+    final boolean resultOrdered = mappedStatement.isResultOrdered() && !(resultHandler instanceof BatchResultLoader.ResultCollector);
     while (shouldProcessMoreRows(resultContext, rowBounds) && !resultSet.isClosed() && resultSet.next()) {
+      rsw.incrementFetchedRows();
       // 处理鉴别器
       final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(resultSet, resultMap, null);
       // 生成缓存键
       final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
-      Object partialObject = nestedResultObjects.get(rowKey);
       // issue #577 && #542
-      if (mappedStatement.isResultOrdered()) {
-        if (partialObject == null && rowValue != null) {
+      if (resultOrdered) {
+        // 结果按父对象的键排序，键变化说明上一个父对象已经完整：立即交出，并释放它及其子对象的全部记录
+        if (rowKey == CacheKey.NULL_CACHE_KEY || !rowKey.equals(previousRowKey)) {
           nestedResultObjects.clear();
-          storeObject(resultHandler, resultContext, rowValue, parentMapping, resultSet);
+          if (rowValue != null) {
+            storeObject(resultHandler, resultContext, rowValue, parentMapping, resultSet);
+          }
+          previousRowKey = rowKey;
+          rowValue = getRowValue(rsw, discriminatedResultMap, rowKey, null, null);
+        } else {
+          rowValue = getRowValue(rsw, discriminatedResultMap, rowKey, null, nestedResultObjects.get(rowKey));
         }
-        rowValue = getRowValue(rsw, discriminatedResultMap, rowKey, null, partialObject);
       } else {
+        Object partialObject = nestedResultObjects.get(rowKey);
         rowValue = getRowValue(rsw, discriminatedResultMap, rowKey, null, partialObject);
         if (partialObject == null) {
           storeObject(resultHandler, resultContext, rowValue, parentMapping, resultSet);
         }
       }
     }
-    if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
+    if (rowValue != null && resultOrdered && shouldProcessMoreRows(resultContext, rowBounds)) {
       storeObject(resultHandler, resultContext, rowValue, parentMapping, resultSet);
       previousRowValue = null;
+      previousRowKey = null;
     } else if (rowValue != null) {
       previousRowValue = rowValue;
     }
@@ -1039,11 +1165,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       rowValue = createResultObject(rsw, resultMap, lazyLoader, columnPrefix);
       if (rowValue != null && !hasTypeHandlerForResultObject(rsw, resultMap.getType())) {
         final MetaObject metaObject = configuration.newMetaObject(rowValue);
+        final ResultMappingPlan plan = getMappingPlan(rsw, resultMap, rowValue, columnPrefix, true);
         boolean foundValues = this.useConstructorMappings;
-        if (shouldApplyAutomaticMappings(resultMap, true)) {
-          foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, columnPrefix) || foundValues;
-        }
-        foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, columnPrefix) || foundValues;
+        foundValues = applyAutomaticMappings(rsw, plan, rowValue, metaObject) || foundValues;
+        foundValues = applyPropertyMappings(rsw, plan, rowValue, metaObject, lazyLoader, columnPrefix) || foundValues;
         putAncestor(rowValue, resultMapId);
         foundValues = applyNestedResultMappings(rsw, resultMap, metaObject, columnPrefix, combinedKey, true) || foundValues;
         ancestorObjects.remove(resultMapId);
@@ -1057,6 +1182,43 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return rowValue;
   }
 
+  //
+  // BATCHED NESTED QUERIES
+  //
+
+  private String[] getBatchedNestedQueryColumns(ResultMapping resultMapping, String columnPrefix) {
+    if (resultMapping.isCompositeResult()) {
+      List<ResultMapping> composites = resultMapping.getComposites();
+      String[] columns = new String[composites.size()];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = prependPrefix(composites.get(i).getColumn(), columnPrefix);
+      }
+      return columns;
+    }
+    return new String[] { prependPrefix(resultMapping.getColumn(), columnPrefix) };
+  }
+
+  /**
+   * 生成批量嵌套查询中关联父对象和子对象的键。父对象一侧使用关联列，子对象一侧使用外键列
+   */
+  private CacheKey createKeyForBatchedNestedQuery(ResultSet rs, String[] columns) throws SQLException {
+    CacheKey cacheKey = new CacheKey();
+    for (String column : columns) {
+      cacheKey.update(rs.getString(column));
+    }
+    return cacheKey;
+  }
+
+  private void loadBatchedNestedQueries() throws SQLException {
+    for (Map.Entry<ResultMapping, BatchResultLoader> entry : batchResultLoaders.entrySet()) {
+      // 懒加载的批量嵌套查询由代理对象触发
+      if (!entry.getKey().isLazy()) {
+        entry.getValue().loadAll();
+      }
+    }
+    batchResultLoaders.clear();
+  }
+
   private void putAncestor(Object resultObject, String resultMapId) {
     ancestorObjects.put(resultMapId, resultObject);
   }
@@ -1200,7 +1362,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
         // Issue #114
         if (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
-          final Object value = th.getResult(rsw.getResultSet(), column);
+          final Object value = rsw.getColumnValue(th, column);
           if (value != null || configuration.isReturnInstanceForEmptyRow()) {
             cacheKey.update(column);
             cacheKey.update(value);
@@ -1224,7 +1386,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
       if (metaType.findProperty(property, configuration.isMapUnderscoreToCamelCase()) != null) {
-        String value = rsw.getResultSet().getString(column);
+        String value = getString(rsw, column);
         if (value != null) {
           cacheKey.update(column);
           cacheKey.update(value);
@@ -1236,7 +1398,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private void createRowKeyForMap(ResultSetWrapper rsw, CacheKey cacheKey) throws SQLException {
     List<String> columnNames = rsw.getColumnNames();
     for (String columnName : columnNames) {
-      final String value = rsw.getResultSet().getString(columnName);
+      final String value = getString(rsw, columnName);
       if (value != null) {
         cacheKey.update(columnName);
         cacheKey.update(value);
@@ -1244,6 +1406,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     }
   }
 
+  private String getString(ResultSetWrapper rsw, String columnName) throws SQLException {
+    final int index = rsw.getColumnIndex(columnName);
+    return index > 0 ? rsw.getResultSet().getString(index) : rsw.getResultSet().getString(columnName);
+  }
+
   private void linkObjects(MetaObject metaObject, ResultMapping resultMapping, Object rowValue) {
     final Object collectionProperty = instantiateCollectionPropertyIfAppropriate(resultMapping, metaObject);
     if (collectionProperty != null) {
@@ -1278,10 +1445,17 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   }
 
   private boolean hasTypeHandlerForResultObject(ResultSetWrapper rsw, Class<?> resultType) {
-    if (rsw.getColumnNames().size() == 1) {
-      return typeHandlerRegistry.hasTypeHandler(resultType, rsw.getJdbcType(rsw.getColumnNames().get(0)));
+    // 每行记录都要判断，结果记录在结果集包装中
+    Boolean hasTypeHandler = rsw.hasTypeHandlerForResultObject(resultType);
+    if (hasTypeHandler == null) {
+      if (rsw.getColumnNames().size() == 1) {
+        hasTypeHandler = typeHandlerRegistry.hasTypeHandler(resultType, rsw.getJdbcType(rsw.getColumnNames().get(0)));
+      } else {
+        hasTypeHandler = typeHandlerRegistry.hasTypeHandler(resultType);
+      }
+      rsw.setTypeHandlerForResultObject(resultType, hasTypeHandler);
     }
-    return typeHandlerRegistry.hasTypeHandler(resultType);
+    return hasTypeHandler;
   }
 
 }
@@ -0,0 +1,176 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * 结果映射在某个结果集的各列上的映射计划。
+ *
+ * 在映射结果集的第一行记录时生成，记录了每个要映射的列、该列使用的类型处理器以及目标属性的setter。
+ * 之后的各行记录直接按照计划进行映射，不必逐行地比对列名、查找类型处理器和解析属性路径。
+ * 同一映射语句的后续执行只要列的元数据和结果对象的类型相同，也会复用该计划。
+ * 自动映射时遇到的未知列记录在计划中，每次在新的结果集上使用计划时重新报告。
+ */
+public class ResultMappingPlan {
+
+  // 生成计划时结果对象的类型
+  private final Class<?> resultType;
+  // setter所属的类型。为null表示无法直接调用setter，只能通过MetaObject设置属性
+  private final Class<?> targetType;
+  // 自动映射的列
+  private final List<ColumnMapping> autoMappings;
+  // 明示映射的列，按照resultMap中的顺序排列
+  private final List<ColumnMapping> propertyMappings;
+  // 自动映射时无法映射的列
+  private final List<UnknownColumn> unknownColumns;
+  // 是否存在必须借助MetaObject处理的映射（嵌套查询、多结果集等）
+  private final boolean metaObjectRequired;
+
+  ResultMappingPlan(Class<?> resultType, Class<?> targetType, List<ColumnMapping> autoMappings, List<ColumnMapping> propertyMappings,
+      List<UnknownColumn> unknownColumns) {
+    this.resultType = resultType;
+    this.targetType = targetType;
+    this.autoMappings = autoMappings;
+    this.propertyMappings = propertyMappings;
+    this.unknownColumns = unknownColumns;
+    boolean complex = false;
+    for (ColumnMapping mapping : propertyMappings) {
+      complex = complex || mapping.isComplex();
+    }
+    this.metaObjectRequired = complex;
+  }
+
+  List<ColumnMapping> getAutoMappings() {
+    return autoMappings;
+  }
+
+  List<ColumnMapping> getPropertyMappings() {
+    return propertyMappings;
+  }
+
+  List<UnknownColumn> getUnknownColumns() {
+    return unknownColumns;
+  }
+
+  /**
+   * 判断计划是否是针对该结果对象的类型生成的
+   * @param rowValue 结果对象
+   * @return 是否针对该类型生成
+   */
+  boolean isBuiltFor(Object rowValue) {
+    return resultType == rowValue.getClass();
+  }
+
+  /**
+   * 判断能否对结果对象直接调用setter
+   * @param rowValue 结果对象
+   * @return 能否直接调用setter
+   */
+  boolean isCompiledFor(Object rowValue) {
+    return targetType != null && targetType == rowValue.getClass();
+  }
+
+  boolean isMetaObjectRequired() {
+    return metaObjectRequired;
+  }
+
+  /**
+   * 自动映射时无法映射的列
+   */
+  static final class UnknownColumn {
+    final String column;
+    final String property;
+    // 属性的类型，不为null时表示该类型没有注册类型处理器
+    final Class<?> propertyType;
+
+    UnknownColumn(String column, String property, Class<?> propertyType) {
+      this.column = column;
+      this.property = property;
+      this.propertyType = propertyType;
+    }
+  }
+
+  /**
+   * 一个要映射的列
+   */
+  static final class ColumnMapping {
+    // 列名，已加上前缀
+    final String column;
+    // 从1开始的列序号，找不到该列时为-1
+    final int columnIndex;
+    // 属性名
+    final String property;
+    final TypeHandler<?> typeHandler;
+    // 属性是否为基本类型
+    final boolean primitive;
+    // 属性的setter，不能直接调用时为null
+    final Invoker setter;
+    // 需要交由结果集处理器处理的映射，普通的列映射为null
+    final ResultMapping resultMapping;
+
+    ColumnMapping(String column, int columnIndex, String property, TypeHandler<?> typeHandler, boolean primitive, Invoker setter, ResultMapping resultMapping) {
+      this.column = column;
+      this.columnIndex = columnIndex;
+      this.property = property;
+      this.typeHandler = typeHandler;
+      this.primitive = primitive;
+      this.setter = setter;
+      this.resultMapping = resultMapping;
+    }
+
+    boolean isComplex() {
+      return resultMapping != null;
+    }
+
+    /**
+     * 读取当前行中该列的值，优先按列序号读取
+     * @param rs 结果集
+     * @return 列的值
+     * @throws SQLException
+     */
+    Object getResult(ResultSet rs) throws SQLException {
+      return columnIndex > 0 ? typeHandler.getResult(rs, columnIndex) : typeHandler.getResult(rs, column);
+    }
+
+    /**
+     * 直接调用setter为结果对象设置属性
+     * @param rowValue 结果对象
+     * @param value 属性值
+     */
+    void setValue(Object rowValue, Object value) {
+      try {
+        Object[] params = {value};
+        try {
+          setter.invoke(rowValue, params);
+        } catch (Throwable t) {
+          throw ExceptionUtil.unwrapThrowable(t);
+        }
+      } catch (Throwable t) {
+        throw new ReflectionException("Could not set property '" + property + "' of '" + rowValue.getClass() + "' with value '" + value + "' Cause: " + t.toString(), t);
+      }
+    }
+  }
+
+}
@@ -54,6 +54,8 @@ public class ResultSetWrapper {
   private final List<String> classNames = new ArrayList<>();
   // resultSet中各个列对应的JDBC类型列表
   private final List<JdbcType> jdbcTypes = new ArrayList<>();
+  // 列名与列序号的对照表。键为大写的列名，值为从1开始的列序号，同名的列只记录第一个，与驱动按列名读取时的行为一致
+  private final Map<String, Integer> columnIndexes = new HashMap<>();
   // <列名，< java类型，TypeHandler>>
   // 这里的数据是不断组建起来的。java类型传入，然后去全局handlerMap索引java类型的handler放入map,然后在赋给列名。
   // 每个列后面的java类型不应该是唯一的么？不是的
@@ -74,6 +76,14 @@ public class ResultSetWrapper {
   //  // <resultMap的id : List<对象映射的列名>>
   // 记录了所有的无映射关系的列。结构为：Map<resultMap的id，List<对象映射的列名>>
   private final Map<String, List<String>> unMappedColumnNamesMap = new HashMap<>();
+  // 各个结果映射在该结果集上的映射计划。结构为：Map<resultMap，Map<列前缀，映射计划>>
+  private final Map<ResultMap, Map<String, ResultMappingPlan>> mappingPlans = new HashMap<>();
+  // 结果类型是否有直接对应的类型处理器。结构为：Map<结果类型，是否有类型处理器>
+  private final Map<Class<?>, Boolean> resultObjectTypeHandlers = new HashMap<>();
+  // 列元数据的签名，列名和类型都相同的结果集可以共用映射计划
+  private String columnSignature;
+  // 已经读取的行数，用于自适应fetchSize的统计
+  private long fetchedRows;
 
   public ResultSetWrapper(ResultSet rs, Configuration configuration) throws SQLException {
     super();
@@ -82,9 +92,11 @@ public class ResultSetWrapper {
     final ResultSetMetaData metaData = rs.getMetaData();
     final int columnCount = metaData.getColumnCount();
     for (int i = 1; i <= columnCount; i++) {
-      columnNames.add(configuration.isUseColumnLabel() ? metaData.getColumnLabel(i) : metaData.getColumnName(i));
+      final String columnName = configuration.isUseColumnLabel() ? metaData.getColumnLabel(i) : metaData.getColumnName(i);
+      columnNames.add(columnName);
       jdbcTypes.add(JdbcType.forCode(metaData.getColumnType(i)));
       classNames.add(metaData.getColumnClassName(i));
+      columnIndexes.putIfAbsent(columnName.toUpperCase(Locale.ENGLISH), i);
     }
   }
 
@@ -92,6 +104,14 @@ public class ResultSetWrapper {
     return resultSet;
   }
 
+  public long getFetchedRows() {
+    return fetchedRows;
+  }
+
+  void incrementFetchedRows() {
+    fetchedRows++;
+  }
+
   public List<String> getColumnNames() {
     return this.columnNames;
   }
@@ -105,12 +125,34 @@ public class ResultSetWrapper {
   }
 
   public JdbcType getJdbcType(String columnName) {
-    for (int i = 0 ; i < columnNames.size(); i++) {
-      if (columnNames.get(i).equalsIgnoreCase(columnName)) {
-        return jdbcTypes.get(i);
-      }
+    final int index = getColumnIndex(columnName);
+    return index > 0 ? jdbcTypes.get(index - 1) : null;
+  }
+
+  /**
+   * 获取列序号，列名不区分大小写
+   * @param columnName 列名
+   * @return 从1开始的列序号，不存在该列时返回-1
+   */
+  public int getColumnIndex(String columnName) {
+    if (columnName == null) {
+      return -1;
     }
-    return null;
+    final Integer index = columnIndexes.get(columnName.toUpperCase(Locale.ENGLISH));
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * 使用类型处理器读取当前行中某列的值。
+   * 能找到该列时按列序号读取，避免驱动逐次解析列名；找不到时仍按列名读取，由驱动报告错误
+   * @param typeHandler 类型处理器
+   * @param columnName 列名
+   * @return 列的值
+   * @throws SQLException
+   */
+  public Object getColumnValue(TypeHandler<?> typeHandler, String columnName) throws SQLException {
+    final int index = getColumnIndex(columnName);
+    return index > 0 ? typeHandler.getResult(resultSet, index) : typeHandler.getResult(resultSet, columnName);
   }
 
   /**
@@ -209,6 +251,38 @@ public class ResultSetWrapper {
     return unMappedColumnNames;
   }
 
+  public ResultMappingPlan getMappingPlan(ResultMap resultMap, String columnPrefix) {
+    Map<String, ResultMappingPlan> plans = mappingPlans.get(resultMap);
+    return plans == null ? null : plans.get(columnPrefix);
+  }
+
+  public void putMappingPlan(ResultMap resultMap, String columnPrefix, ResultMappingPlan plan) {
+    mappingPlans.computeIfAbsent(resultMap, k -> new HashMap<>()).put(columnPrefix, plan);
+  }
+
+  public Boolean hasTypeHandlerForResultObject(Class<?> resultType) {
+    return resultObjectTypeHandlers.get(resultType);
+  }
+
+  public void setTypeHandlerForResultObject(Class<?> resultType, boolean hasTypeHandler) {
+    resultObjectTypeHandlers.put(resultType, hasTypeHandler);
+  }
+
+  /**
+   * 获取列元数据的签名，由各列的列名、JDBC类型和Java类型组成
+   * @return 列元数据的签名
+   */
+  public String getColumnSignature() {
+    if (columnSignature == null) {
+      StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < columnNames.size(); i++) {
+        builder.append(columnNames.get(i)).append('/').append(jdbcTypes.get(i)).append('/').append(classNames.get(i)).append(',');
+      }
+      columnSignature = builder.toString();
+    }
+    return columnSignature;
+  }
+
   private String getMapKey(ResultMap resultMap, String columnPrefix) {
     return resultMap.getId() + ":" + columnPrefix;
   }
@@ -27,7 +27,9 @@ import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.resultset.ResultSetHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.scripting.xmltags.ForEachSqlNode;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
@@ -78,6 +80,10 @@ public abstract class BaseStatementHandler implements StatementHandler {
       boundSql = mappedStatement.getBoundSql(parameterObject);
     }
 
+    // 只有查询会逐块执行，其他语句分块会漏掉后面的块
+    if (mappedStatement.getSqlCommandType() != SqlCommandType.SELECT && ForEachSqlNode.getChunkCount(boundSql) > 1) {
+      throw new ExecutorException("A foreach can only be executed in chunks by select statements. Statement: " + mappedStatement.getId());
+    }
     this.boundSql = boundSql;
 
     this.parameterHandler = configuration.newParameterHandler(mappedStatement, parameterObject, boundSql);
@@ -145,6 +151,14 @@ public abstract class BaseStatementHandler implements StatementHandler {
       stmt.setFetchSize(fetchSize);
       return;
     }
+    if (configuration.isAdaptiveFetchSize() && mappedStatement.getSqlCommandType() == SqlCommandType.SELECT) {
+      // 根据该语句以往的结果选择fetchSize，还没有执行记录时使用默认值
+      Integer advisedFetchSize = configuration.getFetchSizeAdvisor().getFetchSize(mappedStatement, boundSql.getSql());
+      if (advisedFetchSize != null) {
+        stmt.setFetchSize(advisedFetchSize);
+        return;
+      }
+    }
     Integer defaultFetchSize = configuration.getDefaultFetchSize();
     if (defaultFetchSize != null) {
       stmt.setFetchSize(defaultFetchSize);
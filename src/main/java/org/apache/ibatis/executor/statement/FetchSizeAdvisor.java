@@ -0,0 +1,226 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.statement;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Locale;
+
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+
+/**
+ * 根据每条语句以往返回的结果选择JDBC的fetchSize。
+ *
+ * 对每条语句的每种SQL记录最近若干次执行返回的行数（指数加权平均）和行宽。动态SQL生成的不同SQL分别统计，
+ * 行宽在第一次执行时根据结果集的元数据估算，之后不再读取元数据。
+ * 建议的fetchSize使每次往返传输约{@link #TARGET_FETCH_BYTES}字节，同时不超过该语句通常返回行数的两倍，
+ * 这样窄行的大结果减少往返次数，宽行的结果不会一次占用过多内存，小结果也不会让驱动预先分配过大的缓冲区。
+ */
+public class FetchSizeAdvisor {
+
+  // 每次往返期望传输的数据量
+  static final int TARGET_FETCH_BYTES = 512 * 1024;
+  static final int MIN_FETCH_SIZE = 10;
+  static final int MAX_FETCH_SIZE = 10000;
+  // 无法确定宽度的列的估算宽度
+  private static final int DEFAULT_COLUMN_WIDTH = 64;
+  // 变长列和大对象列的估算宽度上限
+  private static final int MAX_COLUMN_WIDTH = 4096;
+  // 新样本的权重
+  private static final double WEIGHT = 0.25;
+  // 最多保存统计信息的SQL数
+  private static final int MAX_STATISTICS = 4096;
+
+  // 键为语句id和SQL，超出上限时淘汰最久未使用的统计信息
+  private final ConcurrentLruCache statistics = new ConcurrentLruCache(new PerpetualCache("FetchSizeStatistics"));
+
+  public FetchSizeAdvisor() {
+    statistics.setSize(MAX_STATISTICS);
+  }
+
+  /**
+   * 获取建议的fetchSize
+   * @param ms 映射语句
+   * @param sql 要执行的SQL
+   * @return 建议的fetchSize，该SQL还没有执行记录时返回null
+   */
+  public Integer getFetchSize(MappedStatement ms, String sql) {
+    Statistics stats = (Statistics) statistics.getObject(new StatisticsKey(ms.getId(), sql));
+    return stats == null ? null : stats.fetchSize;
+  }
+
+  /**
+   * 记录一次读取完毕的结果集
+   * @param ms 映射语句
+   * @param sql 执行的SQL
+   * @param rs 结果集，第一次记录该SQL时需要尚未关闭
+   * @param rows 读取的行数
+   */
+  public void recordResultSet(MappedStatement ms, String sql, ResultSet rs, long rows) {
+    StatisticsKey key = new StatisticsKey(ms.getId(), sql);
+    Statistics stats = (Statistics) statistics.getObject(key);
+    if (stats == null) {
+      try {
+        stats = new Statistics(estimateRowWidth(rs.getMetaData()));
+      } catch (SQLException e) {
+        return;
+      }
+      statistics.putObject(key, stats);
+    }
+    stats.record(rows);
+  }
+
+  /**
+   * 游标查询时，在MySQL驱动上将fetchSize设为Integer.MIN_VALUE，使驱动逐行读取结果而不是一次读入全部结果。
+   * 流式读取期间连接上不能执行其他语句，因此包含嵌套查询的结果映射不使用这种方式。
+   * 只在开启{@link org.apache.ibatis.session.Configuration#isStreamingCursorFetch()}时调用
+   * @param ms 映射语句
+   * @param stmt 语句
+   * @throws SQLException 数据库访问出错
+   */
+  public void applyStreamingFetchSize(MappedStatement ms, Statement stmt) throws SQLException {
+    if (ms.getFetchSize() != null || hasNestedQueries(ms)
+        || stmt.getResultSetType() != ResultSet.TYPE_FORWARD_ONLY
+        || stmt.getResultSetConcurrency() != ResultSet.CONCUR_READ_ONLY) {
+      return;
+    }
+    Connection connection = stmt.getConnection();
+    DatabaseMetaData metaData = connection.getMetaData();
+    String productName = metaData.getDatabaseProductName();
+    String driverName = metaData.getDriverName();
+    if (productName != null && productName.toLowerCase(Locale.ENGLISH).contains("mysql")
+        && driverName != null && driverName.toLowerCase(Locale.ENGLISH).contains("mysql")) {
+      stmt.setFetchSize(Integer.MIN_VALUE);
+    }
+  }
+
+  private boolean hasNestedQueries(MappedStatement ms) {
+    for (ResultMap resultMap : ms.getResultMaps()) {
+      if (resultMap.hasNestedQueries()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int estimateRowWidth(ResultSetMetaData metaData) throws SQLException {
+    int width = 0;
+    int columnCount = metaData.getColumnCount();
+    for (int i = 1; i <= columnCount; i++) {
+      width += estimateColumnWidth(metaData, i);
+    }
+    return Math.max(1, width);
+  }
+
+  private int estimateColumnWidth(ResultSetMetaData metaData, int column) throws SQLException {
+    switch (metaData.getColumnType(column)) {
+      case Types.BIT:
+      case Types.BOOLEAN:
+      case Types.TINYINT:
+        return 1;
+      case Types.SMALLINT:
+        return 2;
+      case Types.INTEGER:
+      case Types.REAL:
+        return 4;
+      case Types.BIGINT:
+      case Types.DOUBLE:
+      case Types.FLOAT:
+      case Types.DATE:
+      case Types.TIME:
+      case Types.TIMESTAMP:
+        return 8;
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+        return 16;
+      case Types.BLOB:
+      case Types.CLOB:
+      case Types.NCLOB:
+      case Types.LONGVARBINARY:
+      case Types.LONGVARCHAR:
+      case Types.LONGNVARCHAR:
+        return MAX_COLUMN_WIDTH;
+      default:
+        int precision = metaData.getPrecision(column);
+        return precision <= 0 ? DEFAULT_COLUMN_WIDTH : Math.min(precision, MAX_COLUMN_WIDTH);
+    }
+  }
+
+  /**
+   * 统计信息的键
+   */
+  private static final class StatisticsKey {
+    private final String statementId;
+    private final String sql;
+    private final int hashCode;
+
+    StatisticsKey(String statementId, String sql) {
+      this.statementId = statementId;
+      this.sql = sql;
+      this.hashCode = 31 * statementId.hashCode() + sql.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof StatisticsKey)) {
+        return false;
+      }
+      StatisticsKey other = (StatisticsKey) o;
+      return hashCode == other.hashCode && statementId.equals(other.statementId) && sql.equals(other.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private static final class Statistics {
+    // 估算的行宽，同一SQL的列不变，只计算一次
+    private final int rowWidth;
+    private double averageRows;
+    private boolean sampled;
+    private volatile Integer fetchSize;
+
+    Statistics(int rowWidth) {
+      this.rowWidth = rowWidth;
+    }
+
+    synchronized void record(long rows) {
+      if (sampled) {
+        averageRows += (rows - averageRows) * WEIGHT;
+      } else {
+        averageRows = rows;
+        sampled = true;
+      }
+      long bySize = TARGET_FETCH_BYTES / rowWidth;
+      long byRows = (long) Math.ceil(averageRows * 2);
+      fetchSize = (int) Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, Math.min(bySize, byRows)));
+    }
+  }
+
+}
@@ -45,15 +45,17 @@ public class BoundSql {
   private final Object parameterObject;
   // 实参
   private final Map<String, Object> additionalParameters;
-  // additionalParameters的包装对象
-  private final MetaObject metaParameters;
+  // additionalParameters的包装对象，首次使用时创建
+  private MetaObject metaParameters;
+  // 配置信息
+  private final Configuration configuration;
 
   public BoundSql(Configuration configuration, String sql, List<ParameterMapping> parameterMappings, Object parameterObject) {
     this.sql = sql;
     this.parameterMappings = parameterMappings;
     this.parameterObject = parameterObject;
     this.additionalParameters = new HashMap<>();
-    this.metaParameters = configuration.newMetaObject(additionalParameters);
+    this.configuration = configuration;
   }
 
   public String getSql() {
@@ -73,11 +75,26 @@ public class BoundSql {
     return additionalParameters.containsKey(paramName);
   }
 
+  /**
+   * 判断是否存在附加参数
+   * @return 是否存在附加参数
+   */
+  public boolean hasAdditionalParameters() {
+    return !additionalParameters.isEmpty();
+  }
+
   public void setAdditionalParameter(String name, Object value) {
-    metaParameters.setValue(name, value);
+    getMetaParameters().setValue(name, value);
   }
 
   public Object getAdditionalParameter(String name) {
-    return metaParameters.getValue(name);
+    return getMetaParameters().getValue(name);
+  }
+
+  private MetaObject getMetaParameters() {
+    if (metaParameters == null) {
+      metaParameters = configuration.newMetaObject(additionalParameters);
+    }
+    return metaParameters;
   }
 }
@@ -24,6 +24,7 @@ import java.util.Properties;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.ThreadSafeCache;
 import org.apache.ibatis.cache.decorators.BlockingCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
@@ -146,6 +147,8 @@ public class CacheBuilder {
    */
   private Cache setStandardDecorators(Cache cache) {
     try {
+      // 淘汰策略自身线程安全时，不需要再使用同步装饰器
+      boolean threadSafe = cache instanceof ThreadSafeCache;
       MetaObject metaCache = SystemMetaObject.forObject(cache);
       // 设置缓存大小
       if (size != null && metaCache.hasSetter("size")) {
@@ -163,7 +166,9 @@ public class CacheBuilder {
       // 使用日志装饰器装饰缓存
       cache = new LoggingCache(cache);
       // 使用同步装饰器装饰缓存
-      cache = new SynchronizedCache(cache);
+      if (!threadSafe) {
+        cache = new SynchronizedCache(cache);
+      }
       // 如果启用了阻塞功能，则使用阻塞装饰器装饰缓存
       if (blocking) {
         cache = new BlockingCache(cache);
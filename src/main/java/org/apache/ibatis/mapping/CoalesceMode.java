@@ -0,0 +1,31 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+/**
+ * 查询语句的合并模式。
+ *
+ * 开启合并后，并发执行的相同查询（CacheKey相同）只会访问一次数据库，其余调用者等待并共享这次查询的结果。
+ * 会话中有未提交的修改，或者结果映射中存在嵌套查询时，查询不参与合并
+ */
+public enum CoalesceMode {
+  /** 不合并，每次查询都访问数据库 */
+  NONE,
+  /** 合并，等待者得到各自的结果列表，但列表中的结果对象是共享的 */
+  SHARED,
+  /** 合并，等待者得到经序列化复制的结果对象，要求结果对象可序列化 */
+  COPY
+}
@@ -17,7 +17,9 @@ package org.apache.ibatis.mapping;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
@@ -26,6 +28,7 @@ import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.scripting.LanguageDriver;
+import org.apache.ibatis.scripting.defaults.ParameterBindingPlan;
 import org.apache.ibatis.session.Configuration;
 
 /**
@@ -77,6 +80,8 @@ public final class MappedStatement {
   private boolean useCache;
   // 结果是否排序
   private boolean resultOrdered;
+  // 并发的相同查询是否合并执行
+  private CoalesceMode coalesceMode;
   // 类型，增删改查
   // sql语句的类型，如select、update、delete、insert
   private SqlCommandType sqlCommandType;
@@ -90,6 +95,10 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  // 最近一次使用的参数绑定计划
+  private volatile ParameterBindingPlan parameterBindingPlan;
+  // 结果映射中是否存在嵌套查询，第一次使用时计算
+  private volatile Boolean hasNestedQueries;
 
   MappedStatement() {
     // constructor disabled
@@ -104,6 +113,7 @@ public final class MappedStatement {
       mappedStatement.sqlSource = sqlSource;
       mappedStatement.statementType = StatementType.PREPARED;
       mappedStatement.resultSetType = ResultSetType.DEFAULT;
+      mappedStatement.coalesceMode = CoalesceMode.NONE;
       mappedStatement.parameterMap = new ParameterMap.Builder(configuration, "defaultParameterMap", null, new ArrayList<>()).build();
       mappedStatement.resultMaps = new ArrayList<>();
       mappedStatement.sqlCommandType = sqlCommandType;
@@ -179,6 +189,11 @@ public final class MappedStatement {
       return this;
     }
 
+    public Builder coalesceMode(CoalesceMode coalesceMode) {
+      mappedStatement.coalesceMode = coalesceMode == null ? CoalesceMode.NONE : coalesceMode;
+      return this;
+    }
+
     public Builder keyGenerator(KeyGenerator keyGenerator) {
       mappedStatement.keyGenerator = keyGenerator;
       return this;
@@ -296,6 +311,10 @@ public final class MappedStatement {
     return resultOrdered;
   }
 
+  public CoalesceMode getCoalesceMode() {
+    return coalesceMode;
+  }
+
   public String getDatabaseId() {
     return databaseId;
   }
@@ -328,8 +347,71 @@ public final class MappedStatement {
     return resultSets;
   }
 
+  /**
+   * 判断语句的结果映射中是否存在嵌套查询，包括嵌套结果映射和鉴别器指向的结果映射。
+   * 结果映射可能引用在该语句之后才解析的结果映射，因此在第一次使用时计算
+   * @return 是否存在嵌套查询
+   */
+  public boolean hasNestedQueries() {
+    Boolean result = hasNestedQueries;
+    if (result == null) {
+      result = false;
+      Set<String> visited = new HashSet<>();
+      for (ResultMap resultMap : resultMaps) {
+        if (hasNestedQueries(resultMap, visited)) {
+          result = true;
+          break;
+        }
+      }
+      hasNestedQueries = result;
+    }
+    return result;
+  }
+
+  private boolean hasNestedQueries(ResultMap resultMap, Set<String> visited) {
+    if (!visited.add(resultMap.getId())) {
+      return false;
+    }
+    if (resultMap.hasNestedQueries()) {
+      return true;
+    }
+    List<String> referencedIds = new ArrayList<>();
+    for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+      if (resultMapping.getNestedResultMapId() != null) {
+        referencedIds.add(resultMapping.getNestedResultMapId());
+      }
+    }
+    if (resultMap.getDiscriminator() != null) {
+      referencedIds.addAll(resultMap.getDiscriminator().getDiscriminatorMap().values());
+    }
+    for (String id : referencedIds) {
+      if (configuration.hasResultMap(id) && hasNestedQueries(configuration.getResultMap(id), visited)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public ParameterBindingPlan getParameterBindingPlan() {
+    return parameterBindingPlan;
+  }
+
+  public void setParameterBindingPlan(ParameterBindingPlan parameterBindingPlan) {
+    this.parameterBindingPlan = parameterBindingPlan;
+  }
+
   public BoundSql getBoundSql(Object parameterObject) {
-    BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
+    return getBoundSql(parameterObject, 0);
+  }
+
+  /**
+   * 获取foreach分块执行时某一块的BoundSql
+   * @param parameterObject 参数对象
+   * @param chunk 块号，从0开始
+   * @return BoundSql对象
+   */
+  public BoundSql getBoundSql(Object parameterObject, int chunk) {
+    BoundSql boundSql = sqlSource.getBoundSql(parameterObject, chunk);
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     if (parameterMappings == null || parameterMappings.isEmpty()) {
       boundSql = new BoundSql(configuration, boundSql.getSql(), parameterMap.getParameterMappings(), parameterObject);
@@ -34,4 +34,15 @@ public interface SqlSource {
    */
   BoundSql getBoundSql(Object parameterObject);
 
+  /**
+   * 获取foreach分块执行时某一块的BoundSql。
+   * 只有生成的BoundSql报告了多个块时才会请求后面的块，不支持分块的实现直接返回完整的BoundSql
+   * @param parameterObject 参数对象
+   * @param chunk 块号，从0开始
+   * @return BoundSql对象
+   */
+  default BoundSql getBoundSql(Object parameterObject, int chunk) {
+    return getBoundSql(parameterObject);
+  }
+
 }
@@ -18,6 +18,8 @@ package org.apache.ibatis.reflection;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import org.apache.ibatis.reflection.invoker.AccessorStrategy;
+
 /**
  * 工厂接口的默认实现
  * ReflectorFactory是Reflector的工厂接口，而DefaultReflectorFactory是该工厂接口的默认实现。
@@ -25,6 +27,8 @@ import java.util.concurrent.ConcurrentMap;
  */
 public class DefaultReflectorFactory implements ReflectorFactory {
   private boolean classCacheEnabled = true;
+  // getter与setter的调用方式
+  private AccessorStrategy accessorStrategy = AccessorStrategy.REFLECTION;
   private final ConcurrentMap<Class<?>, Reflector> reflectorMap = new ConcurrentHashMap<>();
 
   public DefaultReflectorFactory() {
@@ -40,6 +44,19 @@ public class DefaultReflectorFactory implements ReflectorFactory {
     this.classCacheEnabled = classCacheEnabled;
   }
 
+  public AccessorStrategy getAccessorStrategy() {
+    return accessorStrategy;
+  }
+
+  /**
+   * 设置getter与setter的调用方式，已经缓存的Reflector对象会被丢弃
+   * @param accessorStrategy 调用方式
+   */
+  public void setAccessorStrategy(AccessorStrategy accessorStrategy) {
+    this.accessorStrategy = accessorStrategy;
+    reflectorMap.clear();
+  }
+
   /**
    * 生产Reflector对象
    * @param type 目标类型
@@ -49,9 +66,9 @@ public class DefaultReflectorFactory implements ReflectorFactory {
   public Reflector findForClass(Class<?> type) {
     if (classCacheEnabled) { // 允许缓存
       // 生产入参type的反射器对象，并放入缓存
-      return reflectorMap.computeIfAbsent(type, Reflector::new);
+      return reflectorMap.computeIfAbsent(type, clazz -> new Reflector(clazz, accessorStrategy));
     } else {
-      return new Reflector(type);
+      return new Reflector(type, accessorStrategy);
     }
   }
 
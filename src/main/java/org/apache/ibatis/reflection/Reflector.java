@@ -33,8 +33,10 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import org.apache.ibatis.reflection.invoker.AccessorStrategy;
 import org.apache.ibatis.reflection.invoker.GetFieldInvoker;
 import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.invoker.LambdaInvoker;
 import org.apache.ibatis.reflection.invoker.MethodInvoker;
 import org.apache.ibatis.reflection.invoker.SetFieldInvoker;
 import org.apache.ibatis.reflection.property.PropertyNamer;
@@ -51,6 +53,8 @@ public class Reflector {
 
   // 要被反射解析的类
   private final Class<?> type;
+  // getter与setter的调用方式
+  private final AccessorStrategy accessorStrategy;
   // 能够读的属性列表，即有get方法的属性列表
   private final String[] readablePropertyNames;
   // 能够写的属性列表，即有set方法的属性列表
@@ -73,8 +77,18 @@ public class Reflector {
    * @param clazz 需要被反射处理的目标类
    */
   public Reflector(Class<?> clazz) {
+    this(clazz, AccessorStrategy.REFLECTION);
+  }
+
+  /**
+   * Reflector的构造方法
+   * @param clazz 需要被反射处理的目标类
+   * @param accessorStrategy getter与setter的调用方式
+   */
+  public Reflector(Class<?> clazz, AccessorStrategy accessorStrategy) {
     // 要被反射解析的类
     type = clazz;
+    this.accessorStrategy = accessorStrategy;
     // 设置默认构造器属性
     addDefaultConstructor(clazz);
     // 解析所有的getter
@@ -167,7 +181,7 @@ public class Reflector {
 
   private void addGetMethod(String name, Method method) {
     if (isValidPropertyName(name)) {
-      getMethods.put(name, new MethodInvoker(method));
+      getMethods.put(name, newMethodInvoker(method));
       Type returnType = TypeParameterResolver.resolveReturnType(method, type);
       // 这里调用了
       getTypes.put(name, typeToClass(returnType));
@@ -246,12 +260,16 @@ public class Reflector {
 
   private void addSetMethod(String name, Method method) {
     if (isValidPropertyName(name)) {
-      setMethods.put(name, new MethodInvoker(method));
+      setMethods.put(name, newMethodInvoker(method));
       Type[] paramTypes = TypeParameterResolver.resolveParamTypes(method, type);
       setTypes.put(name, typeToClass(paramTypes[0]));
     }
   }
 
+  private Invoker newMethodInvoker(Method method) {
+    return accessorStrategy == AccessorStrategy.LAMBDA ? LambdaInvoker.forMethod(method) : new MethodInvoker(method);
+  }
+
   private Class<?> typeToClass(Type src) {
     Class<?> result = null;
     if (src instanceof Class) {
@@ -0,0 +1,188 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection.invoker;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 通过{@link LambdaMetafactory}生成的函数调用getter或setter。
+ *
+ * 生成的函数直接调用目标方法，没有Method.invoke的参数检查和反射分派。
+ * 生成的类与MyBatis位于同一类加载器中，因此只支持能被MyBatis的类加载器看到的公共类的公共实例方法，
+ * 其余方法由{@link #forMethod(Method)}退回为{@link MethodInvoker}。
+ * MyBatis位于父类加载器或共享类加载器中（例如应用服务器的共享库、OSGi）时，应用自己的类对它不可见，
+ * 这些类的getter与setter全部退回为反射调用，行为不变，只是没有加速效果。
+ * 目标对象或参数与方法签名不符时交给Method.invoke处理，异常与{@link MethodInvoker}完全一致。
+ */
+public class LambdaInvoker implements Invoker {
+
+  // 传入参数或者传出参数类型
+  private final Class<?> type;
+  // 目标方法，目标对象或参数与签名不符时通过它反射调用
+  private final Method method;
+  // 声明方法的类
+  private final Class<?> declaringClass;
+  // setter参数的包装类型，getter时为null
+  private final Class<?> argumentType;
+  // getter对应的函数，setter时为null
+  private final Function<Object, Object> getter;
+  // setter对应的函数，getter时为null
+  private final BiConsumer<Object, Object> setter;
+
+  private LambdaInvoker(Method method, Class<?> type, Function<Object, Object> getter, BiConsumer<Object, Object> setter) {
+    this.method = method;
+    this.declaringClass = method.getDeclaringClass();
+    this.type = type;
+    this.argumentType = setter == null ? null : wrap(type);
+    this.getter = getter;
+    this.setter = setter;
+  }
+
+  /**
+   * 为getter或setter创建调用器，无法生成函数时返回MethodInvoker
+   * @param method getter或setter方法
+   * @return 调用器
+   */
+  public static Invoker forMethod(Method method) {
+    if (isSupported(method)) {
+      try {
+        return method.getParameterTypes().length == 1 ? createSetter(method) : createGetter(method);
+      } catch (Throwable t) {
+        // 例如模块未导出该类所在的包，反射调用仍然可以工作
+      }
+    }
+    return new MethodInvoker(method);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Invoker createGetter(Method method) throws Throwable {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodHandle handle = lookup.unreflect(method);
+    Class<?> returnType = method.getReturnType();
+    CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+        MethodType.methodType(Function.class),
+        MethodType.methodType(Object.class, Object.class),
+        handle,
+        MethodType.methodType(wrap(returnType), method.getDeclaringClass()));
+    return new LambdaInvoker(method, returnType, (Function<Object, Object>) site.getTarget().invokeExact(), null);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Invoker createSetter(Method method) throws Throwable {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodHandle handle = lookup.unreflect(method);
+    Class<?> paramType = method.getParameterTypes()[0];
+    CallSite site = LambdaMetafactory.metafactory(lookup, "accept",
+        MethodType.methodType(BiConsumer.class),
+        MethodType.methodType(void.class, Object.class, Object.class),
+        handle,
+        MethodType.methodType(void.class, method.getDeclaringClass(), wrap(paramType)));
+    return new LambdaInvoker(method, paramType, null, (BiConsumer<Object, Object>) site.getTarget().invokeExact());
+  }
+
+  /**
+   * 判断方法能否生成函数：公共类的公共实例方法，且涉及的类型都能被MyBatis的类加载器看到
+   * @param method 方法
+   * @return 能否生成函数
+   */
+  private static boolean isSupported(Method method) {
+    int modifiers = method.getModifiers();
+    if (Modifier.isStatic(modifiers) || !Modifier.isPublic(modifiers) || method.getParameterTypes().length > 1) {
+      return false;
+    }
+    for (Class<?> clazz = method.getDeclaringClass(); clazz != null; clazz = clazz.getEnclosingClass()) {
+      if (!Modifier.isPublic(clazz.getModifiers())) {
+        return false;
+      }
+    }
+    if (!isVisible(method.getDeclaringClass()) || !isVisible(method.getReturnType())) {
+      return false;
+    }
+    for (Class<?> paramType : method.getParameterTypes()) {
+      if (!isVisible(paramType)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isVisible(Class<?> clazz) {
+    while (clazz.isArray()) {
+      clazz = clazz.getComponentType();
+    }
+    if (clazz.isPrimitive()) {
+      return true;
+    }
+    try {
+      return Class.forName(clazz.getName(), false, LambdaInvoker.class.getClassLoader()) == clazz;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  private static Class<?> wrap(Class<?> type) {
+    return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+  }
+
+  /**
+   * 执行方法。与Method.invoke一致，目标方法抛出的异常包装为InvocationTargetException
+   * @param target 目标对象
+   * @param args 方法入参
+   * @return 方法的返回结果
+   */
+  @Override
+  public Object invoke(Object target, Object[] args) throws IllegalAccessException, InvocationTargetException {
+    if (!declaringClass.isInstance(target) || !isApplicable(args)) {
+      // 由Method.invoke完成基本类型的拓宽转换，或者抛出与反射调用相同的NullPointerException、IllegalArgumentException
+      return method.invoke(target, args);
+    }
+    try {
+      if (getter != null) {
+        return getter.apply(target);
+      }
+      setter.accept(target, args[0]);
+      return null;
+    } catch (Throwable t) {
+      throw new InvocationTargetException(t);
+    }
+  }
+
+  /**
+   * 判断参数能否不经转换直接交给生成的函数
+   * @param args 方法入参
+   * @return 能否直接调用
+   */
+  private boolean isApplicable(Object[] args) {
+    if (getter != null) {
+      return args == null || args.length == 0;
+    }
+    return args != null && args.length == 1 && argumentType.isInstance(args[0]);
+  }
+
+  @Override
+  public Class<?> getType() {
+    return type;
+  }
+}
@@ -19,12 +19,14 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.List;
 
+import org.apache.ibatis.builder.StaticSqlSource;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.JdbcType;
@@ -48,6 +50,8 @@ public class DefaultParameterHandler implements ParameterHandler {
   private final BoundSql boundSql;
   // 配置信息
   private final Configuration configuration;
+  // 最近一次设置的参数值的估计字节数，只在设置了batchFlushBytes时统计
+  private long estimatedParameterSize;
 
   public DefaultParameterHandler(MappedStatement mappedStatement, Object parameterObject, BoundSql boundSql) {
     this.mappedStatement = mappedStatement;
@@ -63,17 +67,41 @@ public class DefaultParameterHandler implements ParameterHandler {
     return parameterObject; //返回参数
   }
 
+  /**
+   * 获取最近一次设置的参数值的估计字节数，供批量执行器按字节数自动执行批次
+   * @return 估计字节数，没有设置batchFlushBytes时为0
+   */
+  public long getEstimatedParameterSize() {
+    return estimatedParameterSize;
+  }
+
   /**
    * 为语句设置参数
    * @param ps 语句
    */
   @Override
   public void setParameters(PreparedStatement ps) {
+    setParameters(ps, 0);
+  }
+
+  /**
+   * 为语句设置参数，参数位置整体后移。用于将多行数据的参数设置到同一条语句中
+   * @param ps 语句
+   * @param offset 第一个参数之前已有的参数数目
+   */
+  public void setParameters(PreparedStatement ps, int offset) {
     ErrorContext.instance().activity("setting parameters").object(mappedStatement.getParameterMap().getId());
     // 取出参数列表
     //获取所有参数，ParameterMapping是jdbc和java类型之间的对应关系
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     if (parameterMappings != null) {
+      final boolean estimateSize = configuration.getBatchFlushBytes() > 0;
+      estimatedParameterSize = 0;
+      ParameterBindingPlan plan = getBindingPlan(parameterMappings);
+      if (plan != null) {
+        estimatedParameterSize = plan.setParameters(ps, offset, parameterObject, estimateSize);
+        return;
+      }
       //遍历所有参数，将java 类型设置成jdbc类型
       for (int i = 0; i < parameterMappings.size(); i++) {
         ParameterMapping parameterMapping = parameterMappings.get(i);
@@ -101,9 +129,12 @@ public class DefaultParameterHandler implements ParameterHandler {
           if (value == null && jdbcType == null) {
             jdbcType = configuration.getJdbcTypeForNull();
           }
+          if (estimateSize) {
+            estimatedParameterSize += estimateSize(value);
+          }
           try {
             // 此方法最终根据参数类型，调用java.sql.PreparedStatement类中的参数赋值方法，对SQL语句中的参数赋值
-            typeHandler.setParameter(ps, i + 1, value, jdbcType);
+            typeHandler.setParameter(ps, offset + i + 1, value, jdbcType);
           } catch (TypeException | SQLException e) {
             throw new TypeException("Could not set parameters for mapping: " + parameterMapping + ". Cause: " + e, e);
           }
@@ -112,4 +143,47 @@ public class DefaultParameterHandler implements ParameterHandler {
     }
   }
 
+  /**
+   * 估计一个参数值传给数据库时占用的字节数
+   * @param value 参数值
+   * @return 估计字节数
+   */
+  static long estimateSize(Object value) {
+    if (value == null) {
+      return 0;
+    } else if (value instanceof CharSequence) {
+      return ((CharSequence) value).length();
+    } else if (value instanceof byte[]) {
+      return ((byte[]) value).length;
+    } else if (value instanceof char[]) {
+      return ((char[]) value).length;
+    } else {
+      return 8;
+    }
+  }
+
+  /**
+   * 获取可以复用的参数绑定计划。只有参数映射列表在每次执行时都相同的语句才会创建计划
+   * @param parameterMappings 参数映射列表
+   * @return 参数绑定计划，不能使用计划时返回null
+   */
+  private ParameterBindingPlan getBindingPlan(List<ParameterMapping> parameterMappings) {
+    if (boundSql.hasAdditionalParameters()) {
+      return null;
+    }
+    ParameterBindingPlan plan = mappedStatement.getParameterBindingPlan();
+    if (plan != null && plan.matches(parameterMappings, parameterObject)) {
+      return plan;
+    }
+    SqlSource sqlSource = mappedStatement.getSqlSource();
+    if (!(sqlSource instanceof RawSqlSource || sqlSource instanceof StaticSqlSource)
+        && parameterMappings != mappedStatement.getParameterMap().getParameterMappings()) {
+      return null;
+    }
+    // 同一语句交替使用不同类型的参数对象时，只保留最近一次的计划
+    plan = new ParameterBindingPlan(configuration, parameterMappings, parameterObject == null ? null : parameterObject.getClass());
+    mappedStatement.setParameterBindingPlan(plan);
+    return plan;
+  }
+
 }
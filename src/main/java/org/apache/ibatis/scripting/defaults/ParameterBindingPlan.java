@@ -0,0 +1,224 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.defaults;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapper;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeException;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * 静态SQL每次执行得到的参数映射列表都是同一个对象，因此参数值的读取方式、类型处理器和JDBC类型都可以预先确定。
+ * 属性路径的每一段缓存最近一次遇到的对象类型及其getter，读取属性值时不再创建MetaObject。
+ * 路径中含有下标、或者遇到集合以及自定义包装的对象时，仍然通过MetaObject读取。
+ */
+public class ParameterBindingPlan {
+
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+
+  // 配置信息
+  private final Configuration configuration;
+  // 计划所对应的参数映射列表，按对象身份比较
+  private final List<ParameterMapping> parameterMappings;
+  // 计划所对应的参数对象类型，参数对象为null时该值为null
+  private final Class<?> parameterType;
+  // 参数对象本身即为参数值（参数对象存在类型处理器）
+  private final boolean parameterIsValue;
+  // 每个占位符的绑定方式，输出参数对应的位置为null
+  private final Binding[] bindings;
+
+  ParameterBindingPlan(Configuration configuration, List<ParameterMapping> parameterMappings, Class<?> parameterType) {
+    this.configuration = configuration;
+    this.parameterMappings = parameterMappings;
+    this.parameterType = parameterType;
+    this.parameterIsValue = parameterType != null && configuration.getTypeHandlerRegistry().hasTypeHandler(parameterType);
+    this.bindings = new Binding[parameterMappings.size()];
+    for (int i = 0; i < bindings.length; i++) {
+      ParameterMapping parameterMapping = parameterMappings.get(i);
+      // ParameterMode.OUT是CallableStatement的输出参数，已经单独注册。故忽略
+      if (parameterMapping.getMode() != ParameterMode.OUT) {
+        bindings[i] = new Binding(parameterMapping, PropertyPath.compile(parameterMapping.getProperty()));
+      }
+    }
+  }
+
+  /**
+   * 判断计划能否用于给定的参数映射列表和参数对象
+   * @param parameterMappings 参数映射列表
+   * @param parameterObject 参数对象
+   * @return 能否使用该计划
+   */
+  boolean matches(List<ParameterMapping> parameterMappings, Object parameterObject) {
+    return this.parameterMappings == parameterMappings
+        && parameterType == (parameterObject == null ? null : parameterObject.getClass());
+  }
+
+  /**
+   * 按照计划为语句设置参数
+   * @param ps 语句
+   * @param offset 第一个参数之前已有的参数数目
+   * @param parameterObject 参数对象
+   * @param estimateSize 是否估计参数值的字节数
+   * @return 参数值的估计字节数，不估计时为0
+   */
+  long setParameters(PreparedStatement ps, int offset, Object parameterObject, boolean estimateSize) {
+    long size = 0;
+    for (int i = 0; i < bindings.length; i++) {
+      Binding binding = bindings[i];
+      if (binding == null) {
+        continue;
+      }
+      Object value;
+      if (parameterObject == null) {
+        value = null;
+      } else if (parameterIsValue) {
+        value = parameterObject;
+      } else if (binding.path != null) {
+        value = binding.path.getValue(configuration, parameterObject);
+      } else {
+        value = configuration.newMetaObject(parameterObject).getValue(binding.parameterMapping.getProperty());
+      }
+      JdbcType jdbcType = binding.jdbcType;
+      if (value == null && jdbcType == null) {
+        jdbcType = configuration.getJdbcTypeForNull();
+      }
+      if (estimateSize) {
+        size += DefaultParameterHandler.estimateSize(value);
+      }
+      try {
+        binding.typeHandler.setParameter(ps, offset + i + 1, value, jdbcType);
+      } catch (TypeException | SQLException e) {
+        throw new TypeException("Could not set parameters for mapping: " + binding.parameterMapping + ". Cause: " + e, e);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * 一个占位符的绑定方式
+   */
+  private static final class Binding {
+    private final ParameterMapping parameterMapping;
+    @SuppressWarnings("rawtypes")
+    private final TypeHandler typeHandler;
+    private final JdbcType jdbcType;
+    // 属性路径，为null表示只能通过MetaObject读取
+    private final PropertyPath path;
+
+    Binding(ParameterMapping parameterMapping, PropertyPath path) {
+      this.parameterMapping = parameterMapping;
+      this.typeHandler = parameterMapping.getTypeHandler();
+      this.jdbcType = parameterMapping.getJdbcType();
+      this.path = path;
+    }
+  }
+
+  /**
+   * 属性路径中的一段，例如"user.name"由"user"和"name"两段组成
+   */
+  private static final class PropertyPath {
+    // 本段的属性名
+    private final String name;
+    // 从本段开始的剩余路径，交给MetaObject读取时使用
+    private final String path;
+    // 下一段
+    private final PropertyPath next;
+    // 最近一次读取时对象的类型及其getter
+    private volatile CachedGetter getter;
+
+    private PropertyPath(String name, String path, PropertyPath next) {
+      this.name = name;
+      this.path = path;
+      this.next = next;
+    }
+
+    /**
+     * 解析属性路径
+     * @param property 属性路径
+     * @return 解析结果，路径中含有下标时返回null
+     */
+    static PropertyPath compile(String property) {
+      if (property == null || property.isEmpty() || property.indexOf('[') >= 0) {
+        return null;
+      }
+      int dot = property.indexOf('.');
+      if (dot < 0) {
+        return new PropertyPath(property, property, null);
+      }
+      PropertyPath next = compile(property.substring(dot + 1));
+      return next == null ? null : new PropertyPath(property.substring(0, dot), property, next);
+    }
+
+    /**
+     * 从对象中读取本段及后续各段的属性值，与MetaObject.getValue的结果一致
+     * @param configuration 配置信息
+     * @param target 对象
+     * @return 属性值
+     */
+    Object getValue(Configuration configuration, Object target) {
+      if (target instanceof ObjectWrapper || target instanceof Collection
+          || configuration.getObjectWrapperFactory().hasWrapperFor(target)) {
+        return configuration.newMetaObject(target).getValue(path);
+      }
+      Object value = target instanceof Map ? ((Map<?, ?>) target).get(name) : getBeanProperty(configuration, target);
+      if (next == null || value == null) {
+        return value;
+      }
+      return next.getValue(configuration, value);
+    }
+
+    private Object getBeanProperty(Configuration configuration, Object target) {
+      CachedGetter cached = getter;
+      if (cached == null || cached.type != target.getClass()) {
+        Invoker invoker = configuration.getReflectorFactory().findForClass(target.getClass()).getGetInvoker(name);
+        cached = new CachedGetter(target.getClass(), invoker);
+        getter = cached;
+      }
+      try {
+        return cached.invoker.invoke(target, NO_ARGUMENTS);
+      } catch (Throwable t) {
+        Throwable cause = ExceptionUtil.unwrapThrowable(t);
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new ReflectionException("Could not get property '" + name + "' from " + target.getClass() + ".  Cause: " + cause.toString(), cause);
+      }
+    }
+  }
+
+  private static final class CachedGetter {
+    private final Class<?> type;
+    private final Invoker invoker;
+
+    CachedGetter(Class<?> type, Invoker invoker) {
+      this.type = type;
+      this.invoker = invoker;
+    }
+  }
+
+}
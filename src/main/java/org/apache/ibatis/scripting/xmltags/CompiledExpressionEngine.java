@@ -0,0 +1,472 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ognl.OgnlOps;
+
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+
+/**
+ * 将常用的OGNL表达式子集编译为直接的取值调用的求值引擎。
+ *
+ * 支持属性路径、null/true/false/数字/字符串字面量、比较运算、and/or/not以及size()、isEmpty()、length()方法调用，
+ * 运算结果与OGNL一致。其他语法在编译时交给OGNL；属性或方法在运行时无法直接处理时（例如对象没有对应的getter），
+ * 整个表达式交给OGNL重新求值。
+ */
+public class CompiledExpressionEngine implements ExpressionEngine {
+
+  // OGNL中Map的这些属性名有特殊含义
+  private static final Set<String> MAP_SPECIAL_PROPERTIES = new HashSet<>(Arrays.asList("size", "keys", "keySet", "values", "isEmpty"));
+  // 编译器不支持的OGNL关键字
+  private static final Set<String> UNSUPPORTED_KEYWORDS = new HashSet<>(Arrays.asList("in", "instanceof", "new", "shl", "shr", "ushr", "band", "bor", "xor"));
+  private static final DynamicContext.ContextAccessor CONTEXT_ACCESSOR = new DynamicContext.ContextAccessor();
+
+  private final ReflectorFactory reflectorFactory;
+  // 编译后的表达式
+  private final Map<String, Expression> expressionCache = new ConcurrentHashMap<>();
+
+  public CompiledExpressionEngine() {
+    this(new DefaultReflectorFactory());
+  }
+
+  public CompiledExpressionEngine(ReflectorFactory reflectorFactory) {
+    this.reflectorFactory = reflectorFactory;
+  }
+
+  @Override
+  public Object getValue(String expression, Object root) {
+    Expression compiled = expressionCache.computeIfAbsent(expression, this::compile);
+    try {
+      return compiled.getValue(root);
+    } catch (FallbackException e) {
+      return OgnlCache.getValue(expression, root);
+    }
+  }
+
+  /**
+   * 编译表达式，不支持的语法交给OGNL
+   * @param expression 表达式
+   * @return 编译后的表达式
+   */
+  private Expression compile(String expression) {
+    try {
+      return new Parser(expression).parse();
+    } catch (FallbackException e) {
+      return root -> OgnlCache.getValue(expression, root);
+    }
+  }
+
+  /**
+   * 按照OGNL的规则读取属性
+   * @param target 目标对象
+   * @param name 属性名
+   * @return 属性值
+   */
+  private Object getProperty(Object target, String name) {
+    if (target instanceof DynamicContext.ContextMap) {
+      return CONTEXT_ACCESSOR.getProperty(null, target, name);
+    }
+    if (target instanceof Map) {
+      if (MAP_SPECIAL_PROPERTIES.contains(name)) {
+        throw FallbackException.INSTANCE;
+      }
+      return ((Map<?, ?>) target).get(name);
+    }
+    if (target == null || target instanceof Collection || target instanceof Iterator
+        || target instanceof Enumeration || target.getClass().isArray()) {
+      throw FallbackException.INSTANCE;
+    }
+    Reflector reflector = reflectorFactory.findForClass(target.getClass());
+    if (!reflector.hasGetter(name)) {
+      throw FallbackException.INSTANCE;
+    }
+    try {
+      return reflector.getGetInvoker(name).invoke(target, null);
+    } catch (Throwable t) {
+      // 异常信息以OGNL的为准
+      throw FallbackException.INSTANCE;
+    }
+  }
+
+  /**
+   * 调用无参数的size()、isEmpty()、length()方法
+   * @param target 目标对象
+   * @param name 方法名
+   * @return 方法返回值
+   */
+  private static Object invokeMethod(Object target, String name) {
+    if (target instanceof Collection) {
+      Collection<?> collection = (Collection<?>) target;
+      if ("size".equals(name)) {
+        return collection.size();
+      } else if ("isEmpty".equals(name)) {
+        return collection.isEmpty();
+      }
+    } else if (target instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) target;
+      if ("size".equals(name)) {
+        return map.size();
+      } else if ("isEmpty".equals(name)) {
+        return map.isEmpty();
+      }
+    } else if (target instanceof String) {
+      String string = (String) target;
+      if ("length".equals(name)) {
+        return string.length();
+      } else if ("isEmpty".equals(name)) {
+        return string.isEmpty();
+      }
+    }
+    throw FallbackException.INSTANCE;
+  }
+
+  /**
+   * 编译后的表达式
+   */
+  private interface Expression {
+    Object getValue(Object root);
+  }
+
+  /**
+   * 表达式需要交给OGNL处理。不记录调用栈
+   */
+  private static final class FallbackException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private static final FallbackException INSTANCE = new FallbackException();
+
+    private FallbackException() {
+      super(null, null, false, false);
+    }
+  }
+
+  /**
+   * 递归下降的表达式解析器，运算符优先级与OGNL一致：or < and < 相等比较 < 大小比较 < not
+   */
+  private class Parser {
+    private final String text;
+    private int position;
+    // 当前的记号
+    private String token;
+    // 当前记号是字面量时的值
+    private Object literal;
+    private boolean isLiteral;
+    private boolean isIdentifier;
+
+    Parser(String text) {
+      this.text = text;
+      next();
+    }
+
+    Expression parse() {
+      Expression expression = parseOr();
+      if (token != null) {
+        throw FallbackException.INSTANCE;
+      }
+      return expression;
+    }
+
+    private Expression parseOr() {
+      List<Expression> operands = new ArrayList<>();
+      operands.add(parseAnd());
+      while (isOperator("or") || isOperator("||")) {
+        next();
+        operands.add(parseAnd());
+      }
+      if (operands.size() == 1) {
+        return operands.get(0);
+      }
+      Expression[] children = operands.toArray(new Expression[0]);
+      // 与OGNL一致，返回第一个为真的值或最后一个值
+      return root -> {
+        Object result = null;
+        for (int i = 0; i < children.length; i++) {
+          result = children[i].getValue(root);
+          if (i != children.length - 1 && OgnlOps.booleanValue(result)) {
+            break;
+          }
+        }
+        return result;
+      };
+    }
+
+    private Expression parseAnd() {
+      List<Expression> operands = new ArrayList<>();
+      operands.add(parseEquality());
+      while (isOperator("and") || isOperator("&&")) {
+        next();
+        operands.add(parseEquality());
+      }
+      if (operands.size() == 1) {
+        return operands.get(0);
+      }
+      Expression[] children = operands.toArray(new Expression[0]);
+      // 与OGNL一致，返回第一个为假的值或最后一个值
+      return root -> {
+        Object result = null;
+        for (int i = 0; i < children.length; i++) {
+          result = children[i].getValue(root);
+          if (i != children.length - 1 && !OgnlOps.booleanValue(result)) {
+            break;
+          }
+        }
+        return result;
+      };
+    }
+
+    private Expression parseEquality() {
+      Expression left = parseRelational();
+      for (;;) {
+        if (isOperator("==") || isOperator("eq")) {
+          next();
+          Expression l = left;
+          Expression r = parseRelational();
+          left = root -> OgnlOps.equal(l.getValue(root), r.getValue(root));
+        } else if (isOperator("!=") || isOperator("neq")) {
+          next();
+          Expression l = left;
+          Expression r = parseRelational();
+          left = root -> !OgnlOps.equal(l.getValue(root), r.getValue(root));
+        } else {
+          return left;
+        }
+      }
+    }
+
+    private Expression parseRelational() {
+      Expression left = parseUnary();
+      for (;;) {
+        Expression l = left;
+        if (isOperator("<") || isOperator("lt")) {
+          next();
+          Expression r = parseUnary();
+          left = root -> OgnlOps.less(l.getValue(root), r.getValue(root));
+        } else if (isOperator(">") || isOperator("gt")) {
+          next();
+          Expression r = parseUnary();
+          left = root -> OgnlOps.greater(l.getValue(root), r.getValue(root));
+        } else if (isOperator("<=") || isOperator("lte")) {
+          next();
+          Expression r = parseUnary();
+          left = root -> !OgnlOps.greater(l.getValue(root), r.getValue(root));
+        } else if (isOperator(">=") || isOperator("gte")) {
+          next();
+          Expression r = parseUnary();
+          left = root -> !OgnlOps.less(l.getValue(root), r.getValue(root));
+        } else {
+          return left;
+        }
+      }
+    }
+
+    private Expression parseUnary() {
+      if (isOperator("!") || isOperator("not")) {
+        next();
+        Expression operand = parseUnary();
+        return root -> !OgnlOps.booleanValue(operand.getValue(root));
+      }
+      return parsePrimary();
+    }
+
+    private Expression parsePrimary() {
+      if (token == null) {
+        throw FallbackException.INSTANCE;
+      }
+      if (isLiteral) {
+        Object value = literal;
+        next();
+        return root -> value;
+      }
+      if (isOperator("(")) {
+        next();
+        Expression expression = parseOr();
+        expect(")");
+        return expression;
+      }
+      if (!isIdentifier) {
+        throw FallbackException.INSTANCE;
+      }
+      String name = token;
+      next();
+      Expression expression = root -> getProperty(root, name);
+      while (isOperator(".")) {
+        next();
+        if (!isIdentifier) {
+          throw FallbackException.INSTANCE;
+        }
+        String member = token;
+        next();
+        Expression target = expression;
+        if (isOperator("(")) {
+          next();
+          expect(")");
+          if (!"size".equals(member) && !"isEmpty".equals(member) && !"length".equals(member)) {
+            throw FallbackException.INSTANCE;
+          }
+          expression = root -> invokeMethod(target.getValue(root), member);
+        } else {
+          expression = root -> getProperty(target.getValue(root), member);
+        }
+      }
+      return expression;
+    }
+
+    private boolean isOperator(String operator) {
+      return token != null && !isLiteral && token.equals(operator);
+    }
+
+    private void expect(String operator) {
+      if (!isOperator(operator)) {
+        throw FallbackException.INSTANCE;
+      }
+      next();
+    }
+
+    /**
+     * 读取下一个记号，遇到不支持的写法时放弃编译
+     */
+    private void next() {
+      isLiteral = false;
+      isIdentifier = false;
+      literal = null;
+      while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+        position++;
+      }
+      if (position >= text.length()) {
+        token = null;
+        return;
+      }
+      char c = text.charAt(position);
+      if (Character.isJavaIdentifierStart(c)) {
+        int start = position;
+        while (position < text.length() && Character.isJavaIdentifierPart(text.charAt(position))) {
+          position++;
+        }
+        token = text.substring(start, position);
+        readKeyword();
+      } else if (c >= '0' && c <= '9') {
+        readNumber();
+      } else if (c == '\'' || c == '"') {
+        readString(c);
+      } else {
+        readOperator();
+      }
+    }
+
+    private void readKeyword() {
+      switch (token) {
+        case "null":
+          isLiteral = true;
+          literal = null;
+          break;
+        case "true":
+          isLiteral = true;
+          literal = Boolean.TRUE;
+          break;
+        case "false":
+          isLiteral = true;
+          literal = Boolean.FALSE;
+          break;
+        case "and":
+        case "or":
+        case "not":
+        case "eq":
+        case "neq":
+        case "lt":
+        case "gt":
+        case "lte":
+        case "gte":
+          break;
+        default:
+          if (UNSUPPORTED_KEYWORDS.contains(token)) {
+            throw FallbackException.INSTANCE;
+          }
+          isIdentifier = true;
+      }
+    }
+
+    private void readNumber() {
+      int start = position;
+      while (position < text.length() && Character.isDigit(text.charAt(position))) {
+        position++;
+      }
+      boolean decimal = false;
+      if (position + 1 < text.length() && text.charAt(position) == '.' && Character.isDigit(text.charAt(position + 1))) {
+        decimal = true;
+        position++;
+        while (position < text.length() && Character.isDigit(text.charAt(position))) {
+          position++;
+        }
+      }
+      // 带后缀、指数、十六进制或八进制的数字交给OGNL
+      if (position < text.length() && (Character.isJavaIdentifierPart(text.charAt(position)) || text.charAt(position) == '.')) {
+        throw FallbackException.INSTANCE;
+      }
+      token = text.substring(start, position);
+      if (!decimal && token.length() > 1 && token.charAt(0) == '0') {
+        throw FallbackException.INSTANCE;
+      }
+      isLiteral = true;
+      try {
+        literal = decimal ? (Object) Double.valueOf(token) : (Object) Integer.valueOf(token);
+      } catch (NumberFormatException e) {
+        throw FallbackException.INSTANCE;
+      }
+    }
+
+    private void readString(char quote) {
+      int end = text.indexOf(quote, position + 1);
+      if (end < 0) {
+        throw FallbackException.INSTANCE;
+      }
+      String value = text.substring(position + 1, end);
+      // 转义字符交给OGNL
+      if (value.indexOf('\\') >= 0) {
+        throw FallbackException.INSTANCE;
+      }
+      position = end + 1;
+      token = value;
+      isLiteral = true;
+      // 与OGNL一致，单引号中的单个字符是Character
+      literal = quote == '\'' && value.length() == 1 ? (Object) value.charAt(0) : value;
+    }
+
+    private void readOperator() {
+      String[] operators = {"==", "!=", "<=", ">=", "&&", "||", "<", ">", "!", "(", ")", "."};
+      for (String operator : operators) {
+        if (text.startsWith(operator, position)) {
+          position += operator.length();
+          token = operator;
+          return;
+        }
+      }
+      throw FallbackException.INSTANCE;
+    }
+  }
+
+}
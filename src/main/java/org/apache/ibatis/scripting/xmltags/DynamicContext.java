@@ -23,6 +23,7 @@ import ognl.OgnlContext;
 import ognl.OgnlRuntime;
 import ognl.PropertyAccessor;
 
+import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 
@@ -49,6 +50,10 @@ public class DynamicContext {
   private final StringJoiner sqlBuilder = new StringJoiner(" ");
   // 解析时的唯一编号，防止解析混乱
   private int uniqueNumber = 0;
+  // 动态节点的分支选择，用于查找已经解析过的SQL模板。为null时不记录
+  private CacheKey branchKey;
+  // 是否只求值条件、绑定参数，而不拼接SQL
+  private boolean sqlSkipped;
 
   /**
    * DynamicContext的构造方法
@@ -86,7 +91,9 @@ public class DynamicContext {
    * @param sql
    */
   public void appendSql(String sql) {
-    sqlBuilder.add(sql);
+    if (!sqlSkipped) {
+      sqlBuilder.add(sql);
+    }
   }
 
   /**
@@ -101,6 +108,33 @@ public class DynamicContext {
     return uniqueNumber++;
   }
 
+  /**
+   * 开始记录动态节点的分支选择
+   * @param sqlSkipped 是否不再拼接SQL
+   */
+  void recordBranches(boolean sqlSkipped) {
+    this.branchKey = new CacheKey();
+    this.sqlSkipped = sqlSkipped;
+  }
+
+  CacheKey getBranchKey() {
+    return branchKey;
+  }
+
+  /**
+   * 记录一次分支选择。SQL文本只由参数类型和全部分支选择决定，因此它们相同的两次执行可以共用解析结果
+   * @param branch 选择的分支
+   */
+  public void recordBranch(int branch) {
+    if (branchKey != null) {
+      branchKey.update(branch);
+    }
+  }
+
+  public boolean isSqlSkipped() {
+    return sqlSkipped;
+  }
+
   /**
    * HashMap的子类
    */
@@ -15,18 +15,33 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.ibatis.builder.SqlSourceBuilder;
+import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
 import org.apache.ibatis.session.Configuration;
 
 /**
  * @author Clinton Begin
  *
  * SqlSource的重要实现，用以解析动态SQL语句。
+ *
+ * 开启模板缓存后，SQL文本只由参数类型和各个动态节点的分支选择决定。每次执行只求值条件、绑定参数，
+ * 同样的分支选择直接复用上次解析出的StaticSqlSource，不再拼接SQL和解析#{}占位符。
  */
 public class DynamicSqlSource implements SqlSource {
 
+  // 每个SqlSource最多缓存的模板数目，超出后新的分支组合不再缓存
+  private static final int MAX_TEMPLATES = 256;
+
   private final Configuration configuration;
 
   // 整个sqlSource的根节点。
@@ -42,9 +57,23 @@ public class DynamicSqlSource implements SqlSource {
   // ForEachSqlNode：拆解后的foreachSqlNode信息
   private final SqlNode rootSqlNode;
 
+  // 分支选择和对应的解析结果，为null表示不缓存
+  private final Map<CacheKey, SqlTemplate> templates;
+
   public DynamicSqlSource(Configuration configuration, SqlNode rootSqlNode) {
+    this(configuration, rootSqlNode, false);
+  }
+
+  /**
+   * DynamicSqlSource的构造方法
+   * @param configuration 配置信息
+   * @param rootSqlNode 节点树的根节点
+   * @param cacheTemplates 是否按分支选择缓存解析结果。只有节点树中不含${}占位符时才能开启
+   */
+  public DynamicSqlSource(Configuration configuration, SqlNode rootSqlNode, boolean cacheTemplates) {
     this.configuration = configuration;
     this.rootSqlNode = rootSqlNode;
+    this.templates = cacheTemplates ? new ConcurrentHashMap<>() : null;
   }
 
   // 关键方法，获取到sql语句中只含有？，并且整理好参数的boundSql
@@ -56,10 +85,55 @@ public class DynamicSqlSource implements SqlSource {
    */
   @Override
   public BoundSql getBoundSql(Object parameterObject) {
+    return getBoundSql(parameterObject, 0);
+  }
+
+  @Override
+  public BoundSql getBoundSql(Object parameterObject, int chunk) {
+    if (templates == null) {
+      return parseBoundSql(parameterObject, chunk);
+    }
+    // 只求值条件、绑定参数，同时记录分支选择。缓存已满时同时拼接SQL，避免未命中时重新求值
+    DynamicContext context = newContext(parameterObject, chunk);
+    context.recordBranches(templates.size() < MAX_TEMPLATES);
+    rootSqlNode.apply(context);
+    Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
+    CacheKey key = context.getBranchKey();
+    key.update(parameterType);
+    SqlTemplate template = templates.get(key);
+    if (template != null && template.matches(configuration, context.getBindings())) {
+      BoundSql boundSql = template.sqlSource.getBoundSql(parameterObject);
+      context.getBindings().forEach(boundSql::setAdditionalParameter);
+      return boundSql;
+    }
+    // 第一次遇到这种分支选择，或者附加参数的类型发生了变化，完整地解析一次
+    if (context.isSqlSkipped()) {
+      context = newContext(parameterObject, chunk);
+      rootSqlNode.apply(context);
+    }
+    SqlSource sqlSource = new SqlSourceBuilder(configuration).parse(context.getSql(), parameterType, context.getBindings());
+    if (template != null) {
+      // 附加参数换成了新的类型，用新的解析结果替换旧模板，之后使用新类型的执行可以直接复用
+      templates.put(key, new SqlTemplate(configuration, sqlSource, context.getBindings()));
+    } else if (templates.size() < MAX_TEMPLATES) {
+      templates.putIfAbsent(key, new SqlTemplate(configuration, sqlSource, context.getBindings()));
+    }
+    BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
+    context.getBindings().forEach(boundSql::setAdditionalParameter);
+    return boundSql;
+  }
+
+  /**
+   * 拼接SQL并解析占位符，不使用模板缓存
+   * @param parameterObject 参数对象
+   * @param chunk foreach分块执行时的块号
+   * @return BoundSql对象
+   */
+  private BoundSql parseBoundSql(Object parameterObject, int chunk) {
     // 创建DynamicSqlSource的辅助类，用来记录DynamicSqlSource解析出来的
     // * SQL片段信息
     // * 参数信息
-    DynamicContext context = new DynamicContext(configuration, parameterObject);
+    DynamicContext context = newContext(parameterObject, chunk);
     // 这里会逐层（对于mix的node而言）调用apply。最终不同的节点会调用到不同的apply,完成各自的解析
     // 解析完成的东西拼接到DynamicContext中，里面含有#{}
     // 在这里，动态节点和${}都被替换掉了。
@@ -78,4 +152,61 @@ public class DynamicSqlSource implements SqlSource {
     return boundSql;
   }
 
+  private DynamicContext newContext(Object parameterObject, int chunk) {
+    DynamicContext context = new DynamicContext(configuration, parameterObject);
+    if (chunk > 0) {
+      context.bind(ForEachSqlNode.CHUNK_KEY, chunk);
+    }
+    return context;
+  }
+
+  /**
+   * 一种分支选择对应的解析结果。
+   * 从附加参数中取值的占位符，其类型取决于附加参数的运行时类型，复用前需要确认这些类型没有变化
+   */
+  private static class SqlTemplate {
+    private final SqlSource sqlSource;
+    // 从附加参数中取值的占位符属性
+    private final List<String> properties = new ArrayList<>();
+    // 解析时这些属性能否从附加参数中取到
+    private final List<Boolean> resolvable = new ArrayList<>();
+    // 解析时这些属性的类型
+    private final List<Class<?>> types = new ArrayList<>();
+
+    SqlTemplate(Configuration configuration, SqlSource sqlSource, Map<String, Object> bindings) {
+      this.sqlSource = sqlSource;
+      MetaObject metaBindings = configuration.newMetaObject(bindings);
+      for (ParameterMapping parameterMapping : sqlSource.getBoundSql(null).getParameterMappings()) {
+        String property = parameterMapping.getProperty();
+        if (property != null && bindings.containsKey(new PropertyTokenizer(property).getName())) {
+          boolean hasGetter = metaBindings.hasGetter(property);
+          properties.add(property);
+          resolvable.add(hasGetter);
+          types.add(hasGetter ? metaBindings.getGetterType(property) : null);
+        }
+      }
+    }
+
+    /**
+     * 判断本次执行的附加参数能否得到同样的占位符类型
+     * @param configuration 配置信息
+     * @param bindings 本次执行的附加参数
+     * @return 能否复用该模板
+     */
+    boolean matches(Configuration configuration, Map<String, Object> bindings) {
+      if (properties.isEmpty()) {
+        return true;
+      }
+      MetaObject metaBindings = configuration.newMetaObject(bindings);
+      for (int i = 0; i < properties.size(); i++) {
+        String property = properties.get(i);
+        boolean hasGetter = metaBindings.hasGetter(property);
+        if (hasGetter != resolvable.get(i) || hasGetter && metaBindings.getGetterType(property) != types.get(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
 }
@@ -0,0 +1,33 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+/**
+ * 动态SQL中<if>、<when>的test表达式和<foreach>的collection表达式的求值引擎
+ *
+ * 可以通过expressionEngine设置选择，默认使用OGNL
+ */
+public interface ExpressionEngine {
+
+  /**
+   * 读取表达式的结果
+   * @param expression 表达式
+   * @param root 根环境
+   * @return 表达式结果
+   */
+  Object getValue(String expression, Object root);
+
+}
@@ -30,6 +30,17 @@ import org.apache.ibatis.builder.BuilderException;
  */
 public class ExpressionEvaluator {
 
+  // 表达式求值引擎
+  private final ExpressionEngine expressionEngine;
+
+  public ExpressionEvaluator() {
+    this(new OgnlExpressionEngine());
+  }
+
+  public ExpressionEvaluator(ExpressionEngine expressionEngine) {
+    this.expressionEngine = expressionEngine;
+  }
+
   /**
    * 对结果为true/false形式的表达式进行求值
    * @param expression 表达式
@@ -38,7 +49,7 @@ public class ExpressionEvaluator {
    */
   public boolean evaluateBoolean(String expression, Object parameterObject) {
     // 获取表达式的值
-    Object value = OgnlCache.getValue(expression, parameterObject);
+    Object value = expressionEngine.getValue(expression, parameterObject);
     if (value instanceof Boolean) { // 如果确实是Boolean形式的结果
       return (Boolean) value;
     }
@@ -56,7 +67,7 @@ public class ExpressionEvaluator {
    */
   public Iterable<?> evaluateIterable(String expression, Object parameterObject) {
     // 获取表达式的结果
-    Object value = OgnlCache.getValue(expression, parameterObject);
+    Object value = expressionEngine.getValue(expression, parameterObject);
     if (value == null) {
       throw new BuilderException("The expression '" + expression + "' evaluated to a null value.");
     }
@@ -15,16 +15,37 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.parsing.GenericTokenParser;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.ArrayTypeHandler;
 
 /**
  * @author Clinton Begin
  */
 public class ForEachSqlNode implements SqlNode {
   public static final String ITEM_PREFIX = "__frch_";
+  // 分块执行时本次要拼接的块号，由DynamicSqlSource绑定
+  public static final String CHUNK_KEY = "_foreach_chunk";
+  // 语句需要分几块执行
+  public static final String CHUNK_COUNT_KEY = "_foreach_chunk_count";
+  // 被分块的完整集合，缓存的键需要包含全部元素
+  public static final String CHUNKED_COLLECTION_KEY = "_foreach_chunked_collection";
+  // 各块结果直接拼接后会出错的SQL：排序、去重、分组、集合运算和聚合只在单块内生效
+  private static final Pattern NON_CONCATENABLE_SQL = Pattern.compile(
+      "\\b(order\\s+by|group\\s+by|distinct|union|intersect|except|having)\\b|\\b(count|sum|avg|min|max)\\s*\\(",
+      Pattern.CASE_INSENSITIVE);
+  // 以NOT IN结尾的SQL，分块后每块都会返回被其他块排除的行
+  private static final Pattern NOT_IN = Pattern.compile("\\bnot\\s+in\\s*\\(?\\s*$", Pattern.CASE_INSENSITIVE);
 
   // 表达式求值器
   private final ExpressionEvaluator evaluator;
@@ -44,9 +65,22 @@ public class ForEachSqlNode implements SqlNode {
   private final String index;
   // 配置信息
   private final Configuration configuration;
+  // 是否将元素个数补齐到2的幂，使不同长度的集合生成的SQL语句更少
+  private final boolean bucket;
+  // 每块最多的元素个数，超出时语句分多次执行并依次拼接各块的结果。不大于0表示不分块。
+  // 拼接只对逐行返回的查询成立：foreach必须是以AND与其他条件连接的IN列表，集合中重复的元素在分块前去掉；
+  // 含ORDER BY、GROUP BY、DISTINCT、UNION、HAVING、聚合函数或嵌套结果映射的语句以及NOT IN列表不能分块
+  private final int chunkSize;
+  // 是否将整个集合绑定为一个JDBC数组参数
+  private final boolean bindArray;
 
   public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator) {
-    this.evaluator = new ExpressionEvaluator();
+    this(configuration, contents, collectionExpression, index, item, open, close, separator, false, 0, false);
+  }
+
+  public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator,
+      boolean bucket, int chunkSize, boolean bindArray) {
+    this.evaluator = new ExpressionEvaluator(configuration.getExpressionEngine());
     this.collectionExpression = collectionExpression;
     this.contents = contents;
     this.open = open;
@@ -55,6 +89,9 @@ public class ForEachSqlNode implements SqlNode {
     this.index = index;
     this.item = item;
     this.configuration = configuration;
+    this.bucket = bucket;
+    this.chunkSize = chunkSize;
+    this.bindArray = bindArray;
   }
 
   /**
@@ -67,16 +104,47 @@ public class ForEachSqlNode implements SqlNode {
     // 获取环境上下文信息
     Map<String, Object> bindings = context.getBindings();
     // 交给表达式求值器解析表达式，从而获得迭代器
-    final Iterable<?> iterable = evaluator.evaluateIterable(collectionExpression, bindings);
+    Iterable<?> iterable = evaluator.evaluateIterable(collectionExpression, bindings);
+    if (bindArray) {
+      applyArray(context, iterable);
+      return true;
+    }
+    // 分块时本块第一个元素在集合中的位置
+    int offset = 0;
+    // 补齐元素的编号取最后一个真实元素的编号
+    int lastIndex = Integer.MAX_VALUE;
+    if (bucket || chunkSize > 0) {
+      List<Object> elements = toList(iterable);
+      // 一条语句中只有第一个超出块大小的foreach分块
+      if (chunkSize > 0 && elements.size() > chunkSize && !bindings.containsKey(CHUNK_COUNT_KEY)) {
+        // 相同的元素落在不同的块中时同一行会返回多次，分块前先去掉重复的元素
+        elements = new ArrayList<>(new LinkedHashSet<>(elements));
+        if (elements.size() > chunkSize) {
+          if (NOT_IN.matcher(context.getSql() + (open == null ? "" : open)).find()) {
+            throw new BuilderException("A foreach can only be executed in chunks as an IN list, not NOT IN. Collection: " + collectionExpression);
+          }
+          int chunk = bindings.containsKey(CHUNK_KEY) ? (Integer) bindings.get(CHUNK_KEY) : 0;
+          context.bind(CHUNK_COUNT_KEY, (elements.size() + chunkSize - 1) / chunkSize);
+          context.bind(CHUNKED_COLLECTION_KEY, elements);
+          offset = chunk * chunkSize;
+          elements = elements.subList(offset, Math.min(offset + chunkSize, elements.size()));
+        }
+      }
+      lastIndex = offset + elements.size() - 1;
+      iterable = bucket ? padToBucket(elements) : elements;
+    }
     if (!iterable.iterator().hasNext()) { // 没有可以迭代的元素
+      context.recordBranch(0);
       // 不需要拼接信息，直接返回
       return true;
     }
     boolean first = true;
     // 添加open字符串
     applyOpen(context);
-    int i = 0;
+    int i = offset;
     for (Object o : iterable) {
+      // 每个元素记录一次，迭代次数决定了拼接出的占位符数目
+      context.recordBranch(1);
       DynamicContext oldContext = context;
       if (first || separator == null) { // 第一个元素
         // 添加元素
@@ -94,7 +162,7 @@ public class ForEachSqlNode implements SqlNode {
         applyItem(context, mapEntry.getValue(), uniqueNumber);
       } else {
         // 将被迭代对象放入上下文环境中
-        applyIndex(context, i, uniqueNumber);
+        applyIndex(context, Math.min(i, lastIndex), uniqueNumber);
         applyItem(context, o, uniqueNumber);
       }
       // 根据上下文环境等信息构建内容
@@ -105,6 +173,7 @@ public class ForEachSqlNode implements SqlNode {
       context = oldContext;
       i++;
     }
+    context.recordBranch(0);
     // 添加close字符串
     applyClose(context);
     // 清理此次操作对环境的影响
@@ -113,6 +182,84 @@ public class ForEachSqlNode implements SqlNode {
     return true;
   }
 
+  /**
+   * 获取语句需要分几块执行
+   * @param boundSql 第一块的BoundSql
+   * @return 块数，没有分块时为1
+   */
+  public static int getChunkCount(BoundSql boundSql) {
+    return boundSql.hasAdditionalParameter(CHUNK_COUNT_KEY) ? (Integer) boundSql.getAdditionalParameter(CHUNK_COUNT_KEY) : 1;
+  }
+
+  /**
+   * 判断各块的查询结果能否直接拼接为整条语句的结果。
+   * 排序、去重、分组和聚合只作用于单块，拼接后顺序错乱、出现重复行或得到多个聚合值
+   * @param boundSql 某一块的BoundSql
+   * @return 语句是否逐行返回结果、可以拼接
+   */
+  public static boolean isConcatenable(BoundSql boundSql) {
+    return !NON_CONCATENABLE_SQL.matcher(boundSql.getSql()).find();
+  }
+
+  /**
+   * 将整个集合绑定为一个数组参数，由ArrayTypeHandler转为JDBC数组。SQL需要写成数据库支持数组参数的形式，例如id = ANY(?)
+   * @param context 上下文环境
+   * @param iterable 集合
+   */
+  private void applyArray(DynamicContext context, Iterable<?> iterable) {
+    List<Object> elements = new ArrayList<>();
+    Class<?> componentType = null;
+    for (Object o : iterable) {
+      Object element = o instanceof Map.Entry ? ((Map.Entry<?, ?>) o).getValue() : o;
+      elements.add(element);
+      // 元素类型决定数组类型，进而决定数据库中的元素类型
+      if (element != null) {
+        if (componentType == null) {
+          componentType = element.getClass();
+        } else if (componentType != element.getClass()) {
+          componentType = Object.class;
+        }
+      }
+    }
+    Object[] array = (Object[]) Array.newInstance(componentType == null ? Object.class : componentType, elements.size());
+    String name = ITEM_PREFIX + "array_" + context.getUniqueNumber();
+    context.bind(name, elements.toArray(array));
+    applyOpen(context);
+    context.appendSql("#{" + name + ", typeHandler=" + ArrayTypeHandler.class.getName() + "}");
+    applyClose(context);
+  }
+
+  private static List<Object> toList(Iterable<?> iterable) {
+    if (iterable instanceof Collection) {
+      return new ArrayList<>((Collection<?>) iterable);
+    }
+    List<Object> list = new ArrayList<>();
+    for (Object o : iterable) {
+      list.add(o);
+    }
+    return list;
+  }
+
+  /**
+   * 重复最后一个元素，将元素个数补齐到2的幂。只适用于IN列表这类重复元素不影响结果的场景
+   * @param elements 元素列表
+   * @return 补齐后的元素列表
+   */
+  private static List<Object> padToBucket(List<Object> elements) {
+    int size = elements.size();
+    if (size == 0 || Integer.bitCount(size) == 1) {
+      return elements;
+    }
+    int bucketSize = Integer.highestOneBit(size) << 1;
+    List<Object> padded = new ArrayList<>(bucketSize);
+    padded.addAll(elements);
+    Object last = elements.get(size - 1);
+    while (padded.size() < bucketSize) {
+      padded.add(last);
+    }
+    return padded;
+  }
+
   private void applyIndex(DynamicContext context, Object o, int i) {
     if (index != null) {
       context.bind(index, o);
@@ -174,6 +321,10 @@ public class ForEachSqlNode implements SqlNode {
 
     @Override
     public void appendSql(String sql) {
+      if (delegate.isSqlSkipped()) {
+        delegate.appendSql(sql);
+        return;
+      }
       GenericTokenParser parser = new GenericTokenParser("#{", "}", content -> {
         String newContent = content.replaceFirst("^\\s*" + item + "(?![^.,:\\s])", itemizeItem(item, index));
         if (itemIndex != null && newContent.equals(content)) {
@@ -190,6 +341,16 @@ public class ForEachSqlNode implements SqlNode {
       return delegate.getUniqueNumber();
     }
 
+    @Override
+    public void recordBranch(int branch) {
+      delegate.recordBranch(branch);
+    }
+
+    @Override
+    public boolean isSqlSkipped() {
+      return delegate.isSqlSkipped();
+    }
+
   }
 
 
@@ -237,6 +398,16 @@ public class ForEachSqlNode implements SqlNode {
     public int getUniqueNumber() {
       return delegate.getUniqueNumber();
     }
+
+    @Override
+    public void recordBranch(int branch) {
+      delegate.recordBranch(branch);
+    }
+
+    @Override
+    public boolean isSqlSkipped() {
+      return delegate.isSqlSkipped();
+    }
   }
 
 }
@@ -15,6 +15,8 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import org.apache.ibatis.session.Configuration;
+
 /**
  * @author Clinton Begin
  * <if>节点
@@ -33,6 +35,12 @@ public class IfSqlNode implements SqlNode {
     this.evaluator = new ExpressionEvaluator();
   }
 
+  public IfSqlNode(Configuration configuration, SqlNode contents, String test) {
+    this.test = test;
+    this.contents = contents;
+    this.evaluator = new ExpressionEvaluator(configuration.getExpressionEngine());
+  }
+
   /**
    * 完成该节点自身的解析
    * @param context 上下文环境，节点自身的解析结果将合并到该上下文环境中
@@ -42,10 +50,12 @@ public class IfSqlNode implements SqlNode {
   public boolean apply(DynamicContext context) {
     // 判断if条件是否成立
     if (evaluator.evaluateBoolean(test, context.getBindings())) {
+      context.recordBranch(1);
       // 将contents拼接到context
       contents.apply(context);
       return true;
     }
+    context.recordBranch(0);
     return false;
   }
 
@@ -84,6 +84,9 @@ public class TrimSqlNode implements SqlNode {
     }
 
     public void applyAll() {
+      if (delegate.isSqlSkipped()) {
+        return;
+      }
       sqlBuffer = new StringBuilder(sqlBuffer.toString().trim());
       String trimmedUppercaseSql = sqlBuffer.toString().toUpperCase(Locale.ENGLISH);
       if (trimmedUppercaseSql.length() > 0) {
@@ -108,6 +111,16 @@ public class TrimSqlNode implements SqlNode {
       return delegate.getUniqueNumber();
     }
 
+    @Override
+    public void recordBranch(int branch) {
+      delegate.recordBranch(branch);
+    }
+
+    @Override
+    public boolean isSqlSkipped() {
+      return delegate.isSqlSkipped();
+    }
+
     @Override
     public void appendSql(String sql) {
       sqlBuffer.append(sql);
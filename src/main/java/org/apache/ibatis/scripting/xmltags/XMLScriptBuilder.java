@@ -38,6 +38,8 @@ public class XMLScriptBuilder extends BaseBuilder {
   private final XNode context;
   // 当前节点是否为动态节点
   private boolean isDynamic;
+  // 是否含有${}占位符。含有时SQL文本依赖参数值，不能缓存解析结果
+  private boolean containsTextSqlNode;
   // 输入参数的类型
   private final Class<?> parameterType;
   // 节点类型和对应的处理器组成的Map
@@ -79,7 +81,7 @@ public class XMLScriptBuilder extends BaseBuilder {
     SqlSource sqlSource;
     // 根据节点树是否为动态，创建对应的SqlSource对象
     if (isDynamic) {
-      sqlSource = new DynamicSqlSource(configuration, rootSqlNode);
+      sqlSource = new DynamicSqlSource(configuration, rootSqlNode, !containsTextSqlNode);
     } else {
       sqlSource = new RawSqlSource(configuration, rootSqlNode, parameterType);
     }
@@ -107,6 +109,7 @@ public class XMLScriptBuilder extends BaseBuilder {
         if (textSqlNode.isDynamic()) {
           contents.add(textSqlNode);
           isDynamic = true;
+          containsTextSqlNode = true;
         } else {
           contents.add(new StaticTextSqlNode(data));
         }
@@ -206,7 +209,10 @@ public class XMLScriptBuilder extends BaseBuilder {
       String open = nodeToHandle.getStringAttribute("open");
       String close = nodeToHandle.getStringAttribute("close");
       String separator = nodeToHandle.getStringAttribute("separator");
-      ForEachSqlNode forEachSqlNode = new ForEachSqlNode(configuration, mixedSqlNode, collection, index, item, open, close, separator);
+      boolean bucket = nodeToHandle.getBooleanAttribute("bucket", false);
+      int chunkSize = nodeToHandle.getIntAttribute("chunkSize", 0);
+      boolean bindArray = nodeToHandle.getBooleanAttribute("bindArray", false);
+      ForEachSqlNode forEachSqlNode = new ForEachSqlNode(configuration, mixedSqlNode, collection, index, item, open, close, separator, bucket, chunkSize, bindArray);
       targetContents.add(forEachSqlNode);
     }
   }
@@ -228,7 +234,7 @@ public class XMLScriptBuilder extends BaseBuilder {
       // 获取该节点的test属性
       String test = nodeToHandle.getStringAttribute("test");
       // 创建一个IfSqlNode
-      IfSqlNode ifSqlNode = new IfSqlNode(mixedSqlNode, test);
+      IfSqlNode ifSqlNode = new IfSqlNode(configuration, mixedSqlNode, test);
       // 将创建的IfSqlNode放入到SQL节点树中
       targetContents.add(ifSqlNode);
     }
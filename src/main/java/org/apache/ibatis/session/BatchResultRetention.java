@@ -0,0 +1,25 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+/**
+ * 批量执行器在批次执行后保留的结果
+ */
+public enum BatchResultRetention {
+  PARAMETERS,    // 保留每个批次的参数对象和更新行数
+  UPDATE_COUNTS, // 只保留每个批次的更新行数
+  SUMMARY        // 每条SQL只保留一个汇总结果，包括语句数和更新行数之和
+}
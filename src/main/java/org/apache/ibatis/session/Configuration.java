@@ -25,6 +25,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 
 import org.apache.ibatis.binding.MapperRegistry;
@@ -34,26 +37,36 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
+import org.apache.ibatis.datasource.pooled.ConcurrentPooledDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
+import org.apache.ibatis.executor.BatchDependencies;
 import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.BatchFlushListener;
 import org.apache.ibatis.executor.CachingExecutor;
 import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.QueryCoalescer;
 import org.apache.ibatis.executor.ReuseExecutor;
 import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.executor.bulk.BulkChannel;
+import org.apache.ibatis.executor.bulk.JdbcBatchBulkChannel;
+import org.apache.ibatis.executor.bulk.PostgresCopyBulkChannel;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.loader.ProxyFactory;
 import org.apache.ibatis.executor.loader.cglib.CglibProxyFactory;
 import org.apache.ibatis.executor.loader.javassist.JavassistProxyFactory;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultMappingPlan;
 import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.executor.statement.FetchSizeAdvisor;
 import org.apache.ibatis.executor.statement.RoutingStatementHandler;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.io.VFS;
@@ -81,11 +94,15 @@ import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.AccessorStrategy;
 import org.apache.ibatis.reflection.wrapper.DefaultObjectWrapperFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.scripting.LanguageDriverRegistry;
 import org.apache.ibatis.scripting.defaults.RawLanguageDriver;
+import org.apache.ibatis.scripting.xmltags.CompiledExpressionEngine;
+import org.apache.ibatis.scripting.xmltags.ExpressionEngine;
+import org.apache.ibatis.scripting.xmltags.OgnlExpressionEngine;
 import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
@@ -110,6 +127,9 @@ import org.apache.ibatis.type.TypeHandlerRegistry;
 
 public class Configuration {
 
+  // 最多保存的结果映射计划数
+  private static final int MAX_RESULT_MAPPING_PLANS = 4096;
+
   // <environment>节点的信息
   // 运行环境
   protected Environment environment;
@@ -131,6 +151,8 @@ public class Configuration {
   protected boolean callSettersOnNulls;
   protected boolean useActualParamName = true;
   protected boolean returnInstanceForEmptyRow;
+  // 并行解析映射文件时使用的线程数，小于等于1表示依次解析
+  protected int mapperParsingParallelism;
 
   protected String logPrefix;
   protected Class<? extends Log> logImpl;
@@ -140,8 +162,30 @@ public class Configuration {
   protected Set<String> lazyLoadTriggerMethods = new HashSet<>(Arrays.asList("equals", "clone", "hashCode", "toString"));
   protected Integer defaultStatementTimeout;
   protected Integer defaultFetchSize;
+  // 批量嵌套查询每次最多合并的父对象数
+  protected int batchSelectSize = 100;
+  // 是否根据每条查询以往的结果自动选择fetchSize
+  protected boolean adaptiveFetchSize;
+  // 游标查询在MySQL上是否逐行流式读取
+  protected boolean streamingCursorFetch;
+  // 合并查询的跟随者等待正在执行的相同查询的最长毫秒数，超时后自行访问数据库
+  protected long coalesceWaitTimeout = 5000L;
   protected ResultSetType defaultResultSetType;
   protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
+  // 批量执行器是否将交错执行的语句按SQL分组
+  protected boolean batchReordering;
+  // 批量执行器中单个批次的最大语句数，达到后立即执行该批次，小于等于0表示不限制
+  protected int maxBatchSize;
+  // 批量执行器将单行插入语句改写为多行插入时每条语句包含的行数，小于等于1表示不改写
+  protected int multiRowInsertWidth;
+  // 批量执行器等待执行的语句数达到该值时自动执行所有批次，小于等于0表示不限制
+  protected int batchFlushSize;
+  // 批量执行器等待执行的参数值估计字节数达到该值时自动执行所有批次，小于等于0表示不限制
+  protected long batchFlushBytes;
+  // 批量执行器在批次执行后保留的结果
+  protected BatchResultRetention batchResultRetention = BatchResultRetention.PARAMETERS;
+  // 批次执行后的回调
+  protected BatchFlushListener batchFlushListener;
   //指定mybatis如果自动映射列到字段和属性,PARTIAL会自动映射简单的没有嵌套的结果,FULL会自动映射任意复杂的结果
   protected AutoMappingBehavior autoMappingBehavior = AutoMappingBehavior.PARTIAL;
   protected AutoMappingUnknownColumnBehavior autoMappingUnknownColumnBehavior = AutoMappingUnknownColumnBehavior.NONE;
@@ -151,6 +195,14 @@ public class Configuration {
   protected Properties variables = new Properties();
   // 反射工厂
   protected ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
+  // getter与setter的调用方式
+  protected AccessorStrategy accessorStrategy = AccessorStrategy.REFLECTION;
+  // 执行并行查询和异步查询的线程池，为null时使用默认线程池
+  protected ExecutorService asyncExecutor;
+  // 自适应fetchSize的统计信息
+  protected final FetchSizeAdvisor fetchSizeAdvisor = new FetchSizeAdvisor();
+  // 批处理语句分组时使用的表间外键依赖，按环境缓存
+  protected final BatchDependencies batchDependencies = new BatchDependencies();
   // 对象工厂
   protected ObjectFactory objectFactory = new DefaultObjectFactory();
   // 对象包装工厂
@@ -160,6 +212,10 @@ public class Configuration {
   protected boolean lazyLoadingEnabled = false;
   // 代理工厂
   protected ProxyFactory proxyFactory = new JavassistProxyFactory(); // #224 Using internal Javassist instead of OGNL
+  // 动态SQL中test和collection表达式的求值引擎
+  protected ExpressionEngine expressionEngine = new OgnlExpressionEngine();
+  // 批量导入数据的通道
+  protected BulkChannel bulkChannel = new PostgresCopyBulkChannel();
   // 数据库编号
   protected String databaseId;
   // 配置工厂，用来创建用于加载反序列化的未读属性的配置。
@@ -168,6 +224,10 @@ public class Configuration {
   protected final MapperRegistry mapperRegistry = new MapperRegistry(this);
   // 拦截器链（用来支持插件的插入）
   protected final InterceptorChain interceptorChain = new InterceptorChain();
+  // 正在执行的可合并查询
+  protected final QueryCoalescer queryCoalescer = new QueryCoalescer();
+  // 结果映射计划，键由映射语句、结果映射、列前缀、结果对象的类型和列元数据组成，超出上限时淘汰最久未使用的计划
+  protected final ConcurrentLruCache resultMappingPlans = newResultMappingPlanCache();
   // 类型处理器注册表，内置许多，可以通过<typeHandlers>节点补充
   protected final TypeHandlerRegistry typeHandlerRegistry = new TypeHandlerRegistry();
   // 类型别名注册表，内置许多，可以通过<typeAliases>节点补充
@@ -212,11 +272,13 @@ public class Configuration {
 
     typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
     typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
+    typeAliasRegistry.registerAlias("CONCURRENT_POOLED", ConcurrentPooledDataSourceFactory.class);
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
+    typeAliasRegistry.registerAlias("CONCURRENT_LRU", ConcurrentLruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
 
@@ -236,6 +298,12 @@ public class Configuration {
     typeAliasRegistry.registerAlias("CGLIB", CglibProxyFactory.class);
     typeAliasRegistry.registerAlias("JAVASSIST", JavassistProxyFactory.class);
 
+    typeAliasRegistry.registerAlias("OGNL", OgnlExpressionEngine.class);
+    typeAliasRegistry.registerAlias("COMPILED", CompiledExpressionEngine.class);
+
+    typeAliasRegistry.registerAlias("POSTGRES_COPY", PostgresCopyBulkChannel.class);
+    typeAliasRegistry.registerAlias("JDBC_BATCH", JdbcBatchBulkChannel.class);
+
     languageRegistry.setDefaultDriverClass(XMLLanguageDriver.class);
     languageRegistry.register(RawLanguageDriver.class);
   }
@@ -294,6 +362,19 @@ public class Configuration {
     this.returnInstanceForEmptyRow = returnEmptyInstance;
   }
 
+  public int getMapperParsingParallelism() {
+    return mapperParsingParallelism;
+  }
+
+  /**
+   * 设置并行解析映射文件时使用的线程数。并行阶段只读取并解析XML文档、加载映射接口类，
+   * 映射语句、结果映射等仍按照声明顺序依次注册，得到的配置与依次解析完全相同
+   * @param mapperParsingParallelism 线程数，小于等于1表示依次解析
+   */
+  public void setMapperParsingParallelism(int mapperParsingParallelism) {
+    this.mapperParsingParallelism = mapperParsingParallelism;
+  }
+
   public String getDatabaseId() {
     return databaseId;
   }
@@ -391,6 +472,36 @@ public class Configuration {
     this.proxyFactory = proxyFactory;
   }
 
+  public ExpressionEngine getExpressionEngine() {
+    return expressionEngine;
+  }
+
+  /**
+   * 设置动态SQL的表达式求值引擎，只影响此后解析的映射语句
+   * @param expressionEngine 表达式求值引擎，为null时使用OGNL
+   */
+  public void setExpressionEngine(ExpressionEngine expressionEngine) {
+    if (expressionEngine == null) {
+      expressionEngine = new OgnlExpressionEngine();
+    }
+    this.expressionEngine = expressionEngine;
+  }
+
+  public BulkChannel getBulkChannel() {
+    return bulkChannel;
+  }
+
+  /**
+   * 设置批量导入数据的通道
+   * @param bulkChannel 批量导入通道，为null时使用PostgreSQL的COPY，不是PostgreSQL连接时使用JDBC批处理
+   */
+  public void setBulkChannel(BulkChannel bulkChannel) {
+    if (bulkChannel == null) {
+      bulkChannel = new PostgresCopyBulkChannel();
+    }
+    this.bulkChannel = bulkChannel;
+  }
+
   public boolean isAggressiveLazyLoading() {
     return aggressiveLazyLoading;
   }
@@ -461,6 +572,126 @@ public class Configuration {
     this.defaultFetchSize = defaultFetchSize;
   }
 
+  public boolean isAdaptiveFetchSize() {
+    return adaptiveFetchSize;
+  }
+
+  /**
+   * 设置是否启用自适应fetchSize。启用后，没有在语句上设置fetchSize的查询根据该语句以往返回的行数和行宽选择fetchSize
+   * @param adaptiveFetchSize 是否启用
+   */
+  public void setAdaptiveFetchSize(boolean adaptiveFetchSize) {
+    this.adaptiveFetchSize = adaptiveFetchSize;
+  }
+
+  public boolean isStreamingCursorFetch() {
+    return streamingCursorFetch;
+  }
+
+  /**
+   * 设置游标查询在MySQL上是否逐行流式读取。启用后，没有在语句上设置fetchSize的游标查询将fetchSize设为Integer.MIN_VALUE，
+   * 游标打开期间同一会话中不能执行其他语句
+   * @param streamingCursorFetch 是否启用
+   */
+  public void setStreamingCursorFetch(boolean streamingCursorFetch) {
+    this.streamingCursorFetch = streamingCursorFetch;
+  }
+
+  public FetchSizeAdvisor getFetchSizeAdvisor() {
+    return fetchSizeAdvisor;
+  }
+
+  public BatchDependencies getBatchDependencies() {
+    return batchDependencies;
+  }
+
+  public int getBatchSelectSize() {
+    return batchSelectSize;
+  }
+
+  public void setBatchSelectSize(int batchSelectSize) {
+    this.batchSelectSize = batchSelectSize;
+  }
+
+  public boolean isBatchReordering() {
+    return batchReordering;
+  }
+
+  /**
+   * 设置批量执行器是否将交错执行的语句按SQL分组。启用后每条不同的SQL只打开一个语句，
+   * 语句只有在不会越过它可能依赖的语句时才会被并入之前的批次
+   * @param batchReordering 是否分组
+   */
+  public void setBatchReordering(boolean batchReordering) {
+    this.batchReordering = batchReordering;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * 设置批量执行器中单个批次的最大语句数。批次达到该大小时，它以及排在它之前的批次会立即执行
+   * @param maxBatchSize 最大语句数，小于等于0表示不限制
+   */
+  public void setMaxBatchSize(int maxBatchSize) {
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  public int getMultiRowInsertWidth() {
+    return multiRowInsertWidth;
+  }
+
+  /**
+   * 设置批量执行器将单行插入语句改写为多行插入时每条语句包含的行数。
+   * 只有预编译的INSERT ... VALUES (...)语句，并且没有使用selectKey、语句处理器没有被插件拦截时才会改写。
+   * 改写后单条语句的占位符不超过2000个，每行占位符较多的语句实际包含的行数会相应减少
+   * @param multiRowInsertWidth 行数，小于等于1表示不改写
+   */
+  public void setMultiRowInsertWidth(int multiRowInsertWidth) {
+    this.multiRowInsertWidth = multiRowInsertWidth;
+  }
+
+  public int getBatchFlushSize() {
+    return batchFlushSize;
+  }
+
+  /**
+   * 设置批量执行器自动执行的语句数阈值。等待执行的语句数达到该值时，所有批次按顺序执行
+   * @param batchFlushSize 语句数阈值，小于等于0表示不限制
+   */
+  public void setBatchFlushSize(int batchFlushSize) {
+    this.batchFlushSize = batchFlushSize;
+  }
+
+  public long getBatchFlushBytes() {
+    return batchFlushBytes;
+  }
+
+  /**
+   * 设置批量执行器自动执行的字节数阈值。等待执行的参数值估计字节数达到该值时，所有批次按顺序执行
+   * @param batchFlushBytes 字节数阈值，小于等于0表示不限制
+   */
+  public void setBatchFlushBytes(long batchFlushBytes) {
+    this.batchFlushBytes = batchFlushBytes;
+  }
+
+  public BatchResultRetention getBatchResultRetention() {
+    return batchResultRetention;
+  }
+
+  public void setBatchResultRetention(BatchResultRetention batchResultRetention) {
+    this.batchResultRetention = batchResultRetention;
+  }
+
+  public BatchFlushListener getBatchFlushListener() {
+    return batchFlushListener;
+  }
+
+  public void setBatchFlushListener(BatchFlushListener batchFlushListener) {
+    this.batchFlushListener = batchFlushListener;
+  }
+
     /**
    * @since 3.5.2
    */
@@ -540,6 +771,43 @@ public class Configuration {
 
   public void setReflectorFactory(ReflectorFactory reflectorFactory) {
     this.reflectorFactory = reflectorFactory;
+    applyAccessorStrategy();
+  }
+
+  public AccessorStrategy getAccessorStrategy() {
+    return accessorStrategy;
+  }
+
+  /**
+   * 设置getter与setter的调用方式，只对DefaultReflectorFactory生效
+   * @param accessorStrategy 调用方式
+   */
+  public void setAccessorStrategy(AccessorStrategy accessorStrategy) {
+    this.accessorStrategy = accessorStrategy;
+    applyAccessorStrategy();
+  }
+
+  /**
+   * 获取执行并行查询和异步查询的线程池。没有设置时使用一个按需创建守护线程的共享线程池
+   * @return 线程池
+   */
+  public ExecutorService getAsyncExecutor() {
+    return asyncExecutor != null ? asyncExecutor : DefaultAsyncExecutorHolder.INSTANCE;
+  }
+
+  /**
+   * 设置执行并行查询和异步查询的线程池，例如使用虚拟线程的线程池。线程池的生命周期由调用者管理
+   * @param asyncExecutor 线程池
+   */
+  public void setAsyncExecutor(ExecutorService asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  private void applyAccessorStrategy() {
+    if (reflectorFactory instanceof DefaultReflectorFactory
+        && ((DefaultReflectorFactory) reflectorFactory).getAccessorStrategy() != accessorStrategy) {
+      ((DefaultReflectorFactory) reflectorFactory).setAccessorStrategy(accessorStrategy);
+    }
   }
 
   public ObjectFactory getObjectFactory() {
@@ -565,6 +833,42 @@ public class Configuration {
     return interceptorChain.getInterceptors();
   }
 
+  public ResultMappingPlan getResultMappingPlan(String key) {
+    return (ResultMappingPlan) resultMappingPlans.getObject(key);
+  }
+
+  /**
+   * 保存结果映射计划。列的组合可能随动态SQL变化，因此保存的计划数目有上限，超出后淘汰最久未使用的计划
+   * @param key 计划的键
+   * @param plan 映射计划
+   */
+  public void addResultMappingPlan(String key, ResultMappingPlan plan) {
+    resultMappingPlans.putObject(key, plan);
+  }
+
+  private static ConcurrentLruCache newResultMappingPlanCache() {
+    ConcurrentLruCache cache = new ConcurrentLruCache(new PerpetualCache("ResultMappingPlans"));
+    cache.setSize(MAX_RESULT_MAPPING_PLANS);
+    return cache;
+  }
+
+  public long getCoalesceWaitTimeout() {
+    return coalesceWaitTimeout;
+  }
+
+  /**
+   * 设置合并查询的跟随者等待正在执行的相同查询的最长时间。
+   * 正在执行的查询可能在等待跟随者持有的锁，超时后跟随者放弃等待，自行访问数据库
+   * @param coalesceWaitTimeout 毫秒数
+   */
+  public void setCoalesceWaitTimeout(long coalesceWaitTimeout) {
+    this.coalesceWaitTimeout = coalesceWaitTimeout;
+  }
+
+  public QueryCoalescer getQueryCoalescer() {
+    return queryCoalescer;
+  }
+
   public LanguageDriverRegistry getLanguageRegistry() {
     return languageRegistry;
   }
@@ -1059,4 +1363,13 @@ public class Configuration {
     }
   }
 
+  private static class DefaultAsyncExecutorHolder {
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-async-" + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
 }
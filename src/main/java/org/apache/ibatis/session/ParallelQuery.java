@@ -0,0 +1,58 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一组相互独立、并发执行的查询。
+ *
+ * 每条查询在{@link Configuration#getAsyncExecutor()}上执行，使用各自的会话和连接，自动提交且不参与发起者的事务，
+ * 因此看不到发起者会话中尚未提交的修改。只能登记SELECT语句。
+ * 登记查询时返回对应的Future，调用{@link #execute()}后才开始执行。
+ *
+ * <pre>
+ * ParallelQuery query = sqlSession.newParallelQuery();
+ * CompletableFuture&lt;List&lt;Blog&gt;&gt; blogs = query.selectList("selectRecentBlogs");
+ * CompletableFuture&lt;Author&gt; author = query.selectOne("selectAuthor", 101);
+ * query.execute().join();
+ * </pre>
+ */
+public interface ParallelQuery {
+
+  <T> CompletableFuture<T> selectOne(String statement);
+
+  <T> CompletableFuture<T> selectOne(String statement, Object parameter);
+
+  <E> CompletableFuture<List<E>> selectList(String statement);
+
+  <E> CompletableFuture<List<E>> selectList(String statement, Object parameter);
+
+  <E> CompletableFuture<List<E>> selectList(String statement, Object parameter, RowBounds rowBounds);
+
+  <K, V> CompletableFuture<Map<K, V>> selectMap(String statement, String mapKey);
+
+  <K, V> CompletableFuture<Map<K, V>> selectMap(String statement, Object parameter, String mapKey);
+
+  /**
+   * 开始执行所有登记的查询，只能调用一次
+   * @return 所有查询都结束后完成的Future，任何一条查询失败时异常完成
+   */
+  CompletableFuture<Void> execute();
+
+}
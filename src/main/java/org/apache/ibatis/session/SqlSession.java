@@ -19,6 +19,7 @@ import java.io.Closeable;
 import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.BatchResult;
@@ -301,4 +302,41 @@ public interface SqlSession extends Closeable {
    * @return Connection
    */
   Connection getConnection();
+
+  /**
+   * Creates a group of select statements that are executed concurrently on their own connections.
+   * 创建并行查询，其中的查询不参与本会话的事务。默认不支持，由具体的会话实现
+   * @return a new parallel query
+   * @throws UnsupportedOperationException if this session does not support parallel queries
+   */
+  default ParallelQuery newParallelQuery() {
+    throw new UnsupportedOperationException(getClass().getName() + " does not support parallel queries.");
+  }
+
+  /**
+   * Loads objects into a table through the configured bulk channel, in the current transaction.
+   * 批量导入数据。列与属性的对应关系和类型处理器取自resultMap或parameterMap，数据逐行读取，占用的内存不随数据量增长。
+   * 导入只清空本会话的一级缓存，不清空二级缓存，缓存了该表数据的命名空间需要由调用者自行刷新。默认不支持，由具体的会话实现
+   * @param table the target table
+   * @param mapId id of a result map or parameter map describing the columns
+   * @param rows the objects to load
+   * @return the number of loaded rows
+   * @throws UnsupportedOperationException if this session does not support bulk loading
+   */
+  default long bulkLoad(String table, String mapId, Iterable<?> rows) {
+    throw new UnsupportedOperationException(getClass().getName() + " does not support bulk loading.");
+  }
+
+  /**
+   * Loads objects into a table through the configured bulk channel, in the current transaction.
+   * 批量导入数据，流由调用者负责关闭。与{@link #bulkLoad(String, String, Iterable)}一样不清空二级缓存
+   * @param table the target table
+   * @param mapId id of a result map or parameter map describing the columns
+   * @param rows the objects to load
+   * @return the number of loaded rows
+   * @throws UnsupportedOperationException if this session does not support bulk loading
+   */
+  default long bulkLoad(String table, String mapId, Stream<?> rows) {
+    throw new UnsupportedOperationException(getClass().getName() + " does not support bulk loading.");
+  }
 }
@@ -24,6 +24,7 @@ import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.stream.Stream;
 
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.BatchResult;
@@ -276,6 +277,21 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     return sqlSession.getConnection();
   }
 
+  @Override
+  public ParallelQuery newParallelQuery() {
+    return sqlSessionProxy.newParallelQuery();
+  }
+
+  @Override
+  public long bulkLoad(String table, String mapId, Iterable<?> rows) {
+    return sqlSessionProxy.bulkLoad(table, mapId, rows);
+  }
+
+  @Override
+  public long bulkLoad(String table, String mapId, Stream<?> rows) {
+    return sqlSessionProxy.bulkLoad(table, mapId, rows);
+  }
+
   @Override
   public void clearCache() {
     final SqlSession sqlSession = localSqlSession.get();
@@ -0,0 +1,142 @@
+/**
+ *    Copyright 2009-2019 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session.defaults;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ParallelQuery;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionException;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+/**
+ * {@link ParallelQuery}的默认实现，不是线程安全的。
+ */
+public class DefaultParallelQuery implements ParallelQuery {
+
+  private final Configuration configuration;
+  private final SqlSessionFactory sqlSessionFactory;
+  // 登记的查询
+  private final List<Task<?>> tasks = new ArrayList<>();
+  private boolean executed;
+
+  public DefaultParallelQuery(Configuration configuration) {
+    this.configuration = configuration;
+    this.sqlSessionFactory = new DefaultSqlSessionFactory(configuration);
+  }
+
+  @Override
+  public <T> CompletableFuture<T> selectOne(String statement) {
+    return selectOne(statement, null);
+  }
+
+  @Override
+  public <T> CompletableFuture<T> selectOne(String statement, Object parameter) {
+    return addTask(statement, sqlSession -> sqlSession.selectOne(statement, parameter));
+  }
+
+  @Override
+  public <E> CompletableFuture<List<E>> selectList(String statement) {
+    return selectList(statement, null, RowBounds.DEFAULT);
+  }
+
+  @Override
+  public <E> CompletableFuture<List<E>> selectList(String statement, Object parameter) {
+    return selectList(statement, parameter, RowBounds.DEFAULT);
+  }
+
+  @Override
+  public <E> CompletableFuture<List<E>> selectList(String statement, Object parameter, RowBounds rowBounds) {
+    return addTask(statement, sqlSession -> sqlSession.selectList(statement, parameter, rowBounds));
+  }
+
+  @Override
+  public <K, V> CompletableFuture<Map<K, V>> selectMap(String statement, String mapKey) {
+    return selectMap(statement, null, mapKey);
+  }
+
+  @Override
+  public <K, V> CompletableFuture<Map<K, V>> selectMap(String statement, Object parameter, String mapKey) {
+    return addTask(statement, sqlSession -> sqlSession.selectMap(statement, parameter, mapKey));
+  }
+
+  @Override
+  public CompletableFuture<Void> execute() {
+    if (executed) {
+      throw new SqlSessionException("Parallel query has already been executed.");
+    }
+    executed = true;
+    ExecutorService executorService = configuration.getAsyncExecutor();
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks.size()];
+    for (int i = 0; i < futures.length; i++) {
+      Task<?> task = tasks.get(i);
+      futures[i] = task.future;
+      try {
+        executorService.execute(task);
+      } catch (RuntimeException e) {
+        // 执行器拒绝任务
+        task.future.completeExceptionally(e);
+      }
+    }
+    return CompletableFuture.allOf(futures);
+  }
+
+  private <T> CompletableFuture<T> addTask(String statement, Function<SqlSession, T> query) {
+    if (executed) {
+      throw new SqlSessionException("Cannot add a statement to a parallel query that has already been executed.");
+    }
+    MappedStatement ms = configuration.getMappedStatement(statement);
+    if (ms.getSqlCommandType() != SqlCommandType.SELECT) {
+      throw new SqlSessionException("Only select statements can be executed in a parallel query, but '" + statement
+          + "' is a " + ms.getSqlCommandType() + " statement.");
+    }
+    Task<T> task = new Task<>(query);
+    tasks.add(task);
+    return task.future;
+  }
+
+  /**
+   * 一条登记的查询，在自己的自动提交会话中执行
+   */
+  private final class Task<T> implements Runnable {
+    private final Function<SqlSession, T> query;
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    Task(Function<SqlSession, T> query) {
+      this.query = query;
+    }
+
+    @Override
+    public void run() {
+      try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.SIMPLE, true)) {
+        future.complete(query.apply(sqlSession));
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      }
+    }
+  }
+
+}
@@ -21,8 +21,10 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import org.apache.ibatis.binding.BindingException;
 import org.apache.ibatis.cursor.Cursor;
@@ -31,13 +33,16 @@ import org.apache.ibatis.exceptions.TooManyResultsException;
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.bulk.BulkLoadMapping;
 import org.apache.ibatis.executor.result.DefaultMapResultHandler;
 import org.apache.ibatis.executor.result.DefaultResultContext;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ParallelQuery;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionException;
 
 /**
  * The default implementation for {@link SqlSession}.
@@ -325,6 +330,47 @@ public class DefaultSqlSession implements SqlSession {
     executor.clearLocalCache();
   }
 
+  @Override
+  public ParallelQuery newParallelQuery() {
+    // 并行查询使用其他连接，看不到本会话尚未提交的修改
+    if (isCommitOrRollbackRequired(false)) {
+      throw new SqlSessionException("Cannot start a parallel query in a session with uncommitted changes. Commit or roll back first.");
+    }
+    return new DefaultParallelQuery(configuration);
+  }
+
+  @Override
+  public long bulkLoad(String table, String mapId, Iterable<?> rows) {
+    return bulkLoad(table, mapId, rows.iterator());
+  }
+
+  @Override
+  public long bulkLoad(String table, String mapId, Stream<?> rows) {
+    return bulkLoad(table, mapId, rows.iterator());
+  }
+
+  /**
+   * 批量导入数据。导入绕过映射语句，只清空一级缓存，二级缓存需要调用者自行刷新
+   * @param table 目标表
+   * @param mapId 描述列的resultMap或parameterMap的id
+   * @param rows 逐行读取的数据
+   * @return 导入的行数
+   */
+  private long bulkLoad(String table, String mapId, Iterator<?> rows) {
+    try {
+      BulkLoadMapping mapping = BulkLoadMapping.build(configuration, table, mapId);
+      // 先执行尚未执行的批量语句，保证导入的数据在它们之后写入
+      executor.flushStatements();
+      executor.clearLocalCache();
+      dirty = true;
+      return configuration.getBulkChannel().load(getConnection(), mapping, rows);
+    } catch (Exception e) {
+      throw ExceptionFactory.wrapException("Error bulk loading into " + table + ".  Cause: " + e, e);
+    } finally {
+      ErrorContext.instance().reset();
+    }
+  }
+
   private <T> void registerCursor(Cursor<T> cursor) {
     if (cursorList == null) {
       cursorList = new ArrayList<>();